@@ -19,7 +19,9 @@
 package TUIO;
 
 import com.illposed.osc.*;
+import com.illposed.osc.utility.OSCPacketRing;
 import java.util.*;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * The TuioClient class is the central TUIO protocol decoder component. It provides a simple callback infrastructure using the {@link TuioListener} interface.
@@ -37,21 +39,26 @@ import java.util.*;
 public class TuioClient implements OSCListener {
 	
 	private int port = 3333;
-	private OSCPortIn oscPort;
+	private OSCReceiver oscPort;
+	private OSCReceiver customPort;
+	private OSCPacketRing packetRing;
+	private ThreadFactory threadFactory;
 	private boolean connected = false;
-	private Hashtable<Long,TuioObject> objectList = new Hashtable<Long,TuioObject>();
-	private Vector<Long> aliveObjectList = new Vector<Long>();
-	private Vector<Long> newObjectList = new Vector<Long>();
-	private Hashtable<Long,TuioCursor> cursorList = new Hashtable<Long,TuioCursor>();
-	private Vector<Long> aliveCursorList = new Vector<Long>();
-	private Vector<Long> newCursorList = new Vector<Long>();
-	private Hashtable<Long,TuioBlob> blobList = new Hashtable<Long,TuioBlob>();
-	private Vector<Long> aliveBlobList = new Vector<Long>();
-	private Vector<Long> newBlobList = new Vector<Long>();
+	private boolean serialized = false;
+	private TuioSessionMap<TuioObject> objectList = new TuioSessionMap<TuioObject>();
+	private TuioSessionMap<Boolean> aliveObjectList = new TuioSessionMap<Boolean>();
+	private TuioSessionMap<Boolean> newObjectList = new TuioSessionMap<Boolean>();
+	private TuioSessionMap<TuioCursor> cursorList = new TuioSessionMap<TuioCursor>();
+	private TuioSessionMap<Boolean> aliveCursorList = new TuioSessionMap<Boolean>();
+	private TuioSessionMap<Boolean> newCursorList = new TuioSessionMap<Boolean>();
+	private TuioSessionMap<TuioBlob> blobList = new TuioSessionMap<TuioBlob>();
+	private TuioSessionMap<Boolean> aliveBlobList = new TuioSessionMap<Boolean>();
+	private TuioSessionMap<Boolean> newBlobList = new TuioSessionMap<Boolean>();
 	
 	private Vector<TuioObject> frameObjects = new Vector<TuioObject>();
 	private Vector<TuioCursor> frameCursors = new Vector<TuioCursor>();
 	private Vector<TuioBlob> frameBlobs = new Vector<TuioBlob>();
+	private long[] lostIDs = new long[64];
 
 	private Vector<TuioCursor> freeCursorList = new Vector<TuioCursor>();
 	private int maxCursorID = -1;
@@ -76,9 +83,46 @@ public class TuioClient implements OSCListener {
 	public TuioClient(int port) {
 		this.port = port;
 	}
+
+	/**
+	 * This constructor creates a client that receives from the provided transport, such as
+	 * an OSCStreamPortIn, an OSCUnixPortIn for co-located trackers or an OSCLoopbackPortIn.
+	 * The transport is closed on disconnect, so the client can't be connected again.
+	 * Message recycling is left to the caller, as the transport may have other listeners.
+	 * The messages of an OSCShardedPortIn with several shards are decoded one at a time,
+	 * as they arrive from several threads.
+	 *
+	 * @param  receiver  the transport to receive TUIO messages from
+	 */
+	public TuioClient(OSCReceiver receiver) {
+		this.customPort = receiver;
+		if (receiver instanceof OSCPort) this.port = ((OSCPort) receiver).getPort();
+	}
+
+	/**
+	 * Decodes the TUIO messages and calls the TuioListeners on a separate processing thread,
+	 * so that slow TuioListeners can't make the socket drop packets. Has to be called before connect.
+	 * The ring queues packets up to OSCPacketRing.MAX_PACKET_SIZE, which covers any UDP datagram.
+	 *
+	 * @param  ring  the ring that queues the received packets, or null to process them on the receive thread
+	 */
+	public void setPacketRing(OSCPacketRing ring) {
+		packetRing = ring;
+	}
+
+	/**
+	 * Creates the receive and processing threads with the provided factory, for example
+	 * OSCThreadFactory.virtualThreads("TuioClient") to run many clients on virtual threads.
+	 * Has to be called before connect.
+	 *
+	 * @param  factory  the thread factory, or null for the default platform threads
+	 */
+	public void setThreadFactory(ThreadFactory factory) {
+		threadFactory = factory;
+	}
 		
 	/**
-	 * The TuioClient starts listening to TUIO messages on the configured UDP port
+	 * The TuioClient starts listening to TUIO messages on the configured UDP port, or the provided transport
 	 * All reveived TUIO messages are decoded and the resulting TUIO events are broadcasted to all registered TuioListeners
 	 */
 	public void connect() {
@@ -88,14 +132,23 @@ public class TuioClient implements OSCListener {
 		currentTime.reset();
 		
 		try {
-			oscPort = new OSCPortIn(port);
+			oscPort = (customPort != null) ? customPort : new OSCPortIn(port);
+			if (oscPort instanceof OSCPortIn) {
+				OSCPortIn portIn = (OSCPortIn) oscPort;
+				// the decoded messages are never kept beyond acceptMessage, but a port supplied
+				// by the caller may have other listeners that do, so only the own port recycles
+				if (customPort == null) portIn.setRecycling(true);
+				if (packetRing != null) portIn.setPacketRing(packetRing);
+				if (threadFactory != null) portIn.setThreadFactory(threadFactory);
+			}
+			serialized = (oscPort instanceof OSCShardedPortIn) && (((OSCShardedPortIn)oscPort).getShardCount()>1);
 			oscPort.addListener("/tuio/2Dobj",this);
 			oscPort.addListener("/tuio/2Dcur",this);
 			oscPort.addListener("/tuio/2Dblb",this);
 			oscPort.startListening();
 			connected = true;
 		} catch (Exception e) {
-			System.out.println("TuioClient: failed to connect to port "+port);
+			System.out.println("TuioClient: failed to connect to port "+port+": "+e.getMessage());
 			connected = false;
 		}		
 	}
@@ -151,7 +204,7 @@ public class TuioClient implements OSCListener {
 	 */
 	@Deprecated
 	public Vector<TuioObject> getTuioObjects() {
-		return new Vector<TuioObject>(objectList.values());
+		return objectList.values(new Vector<TuioObject>());
 	}
 	
 	/**
@@ -160,7 +213,7 @@ public class TuioClient implements OSCListener {
 	 * @return  an ArrayList of all currently active TuioObjects
 	 */
 	public ArrayList<TuioObject> getTuioObjectList() {
-		return new ArrayList<TuioObject>(objectList.values());
+		return objectList.values();
 	}
 
 	/**
@@ -171,7 +224,7 @@ public class TuioClient implements OSCListener {
 	 */
 	@Deprecated
 	public Vector<TuioCursor> getTuioCursors() {
-		return new Vector<TuioCursor>(cursorList.values());
+		return cursorList.values(new Vector<TuioCursor>());
 	}	
 	
 	/**
@@ -180,7 +233,7 @@ public class TuioClient implements OSCListener {
 	 * @return  an ArrayList of all currently active TuioCursors
 	 */
 	public ArrayList<TuioCursor> getTuioCursorList() {
-		return new ArrayList<TuioCursor>(cursorList.values());
+		return cursorList.values();
 	}	
 
 	/**
@@ -191,7 +244,7 @@ public class TuioClient implements OSCListener {
 	 */
 	@Deprecated
 	public Vector<TuioBlob> getTuioBlobs() {
-		return new Vector<TuioBlob>(blobList.values());
+		return blobList.values(new Vector<TuioBlob>());
 	}
 	
 	/**
@@ -200,7 +253,7 @@ public class TuioClient implements OSCListener {
 	 * @return  an ArrayList of all currently active TuioBlobs
 	 */
 	public ArrayList<TuioBlob> getTuioBlobList() {
-		return new ArrayList<TuioBlob>(blobList.values());
+		return blobList.values();
 	}
 	
 	/**
@@ -244,6 +297,13 @@ public class TuioClient implements OSCListener {
 	 * @param  message	the received OSC message
 	 */
 	public void acceptMessage(Date date, OSCMessage message) {
+		if (serialized) {
+			// the shards of an OSCShardedPortIn call this from several threads
+			synchronized (this) { decodeMessage(date,message); }
+		} else decodeMessage(date,message);
+	}
+
+	private void decodeMessage(Date date, OSCMessage message) {
 	
 		Object[] args = message.getArguments();
 		String command = (String)args[0];
@@ -264,15 +324,14 @@ public class TuioClient implements OSCListener {
 				float maccel = ((Float)args[9]).floatValue();
 				float raccel = ((Float)args[10]).floatValue();
 				
-				if (objectList.get(s_id) == null) {
+				TuioObject tobj = objectList.get(s_id);
+				if (tobj == null) {
 				
 					TuioObject addObject = new TuioObject(s_id,c_id,xpos,ypos,angle);
 					frameObjects.addElement(addObject);
 					
 				} else {
 				
-					TuioObject tobj = objectList.get(s_id);
-					if (tobj==null) return;
 					if ((tobj.xpos!=xpos) || (tobj.ypos!=ypos) || (tobj.angle!=angle) || (tobj.x_speed!=xspeed) || (tobj.y_speed!=yspeed) || (tobj.rotation_speed!=rspeed) || (tobj.motion_accel!=maccel) || (tobj.rotation_accel!=raccel)) {
 						
 						TuioObject updateObject = new TuioObject(s_id,c_id,xpos,ypos,angle);
@@ -288,15 +347,15 @@ public class TuioClient implements OSCListener {
 				for (int i=1;i<args.length;i++) {
 					// get the message content
 					long s_id = ((Integer)args[i]).longValue();
-					newObjectList.addElement(s_id);
+					newObjectList.put(s_id,Boolean.TRUE);
 					// reduce the object list to the lost objects
-					if (aliveObjectList.contains(s_id))
-						 aliveObjectList.removeElement(s_id);
+					aliveObjectList.remove(s_id);
 				}
 				
 				// remove the remaining objects
+				lostIDs = aliveObjectList.keys(lostIDs);
 				for (int i=0;i<aliveObjectList.size();i++) {
-					TuioObject removeObject = objectList.get(aliveObjectList.elementAt(i));
+					TuioObject removeObject = objectList.get(lostIDs[i]);
 					if (removeObject==null) continue;
 					removeObject.remove(currentTime);
 					frameObjects.addElement(removeObject);
@@ -359,9 +418,9 @@ public class TuioClient implements OSCListener {
 						if (listener!=null) listener.refresh(new TuioTime(currentTime,fseq));
 					}
 					
-					Vector<Long> buffer = aliveObjectList;
+					TuioSessionMap<Boolean> buffer = aliveObjectList;
 					aliveObjectList = newObjectList;
-					// recycling the vector
+					// recycling the map
 					newObjectList = buffer;					
 				}
 				frameObjects.clear();
@@ -377,15 +436,14 @@ public class TuioClient implements OSCListener {
 				float yspeed = ((Float)args[5]).floatValue();
 				float maccel = ((Float)args[6]).floatValue();
 				
-				if (cursorList.get(s_id) == null) {
+				TuioCursor tcur = cursorList.get(s_id);
+				if (tcur == null) {
 									
 					TuioCursor addCursor = new TuioCursor(s_id, -1 ,xpos,ypos);
 					frameCursors.addElement(addCursor);
 					
 				} else {
 				
-					TuioCursor tcur = cursorList.get(s_id);
-					if (tcur==null) return;
 					if ((tcur.xpos!=xpos) || (tcur.ypos!=ypos) || (tcur.x_speed!=xspeed) || (tcur.y_speed!=yspeed) || (tcur.motion_accel!=maccel)) {
 
 						TuioCursor updateCursor = new TuioCursor(s_id,tcur.getCursorID(),xpos,ypos);
@@ -402,15 +460,15 @@ public class TuioClient implements OSCListener {
 				for (int i=1;i<args.length;i++) {
 					// get the message content
 					long s_id = ((Integer)args[i]).longValue();
-					newCursorList.addElement(s_id);
+					newCursorList.put(s_id,Boolean.TRUE);
 					// reduce the cursor list to the lost cursors
-					if (aliveCursorList.contains(s_id)) 
-						aliveCursorList.removeElement(s_id);
+					aliveCursorList.remove(s_id);
 				}
 				
 				// remove the remaining cursors
+				lostIDs = aliveCursorList.keys(lostIDs);
 				for (int i=0;i<aliveCursorList.size();i++) {
-					TuioCursor removeCursor = cursorList.get(aliveCursorList.elementAt(i));
+					TuioCursor removeCursor = cursorList.get(lostIDs[i]);
 					if (removeCursor==null) continue;
 					removeCursor.remove(currentTime);
 					frameCursors.addElement(removeCursor);
@@ -510,9 +568,9 @@ public class TuioClient implements OSCListener {
 						if (listener!=null) listener.refresh(new TuioTime(currentTime,fseq));
 					}
 					
-					Vector<Long> buffer = aliveCursorList;
+					TuioSessionMap<Boolean> buffer = aliveCursorList;
 					aliveCursorList = newCursorList;
-					// recycling the vector
+					// recycling the map
 					newCursorList = buffer;				
 				}
 				
@@ -536,15 +594,14 @@ public class TuioClient implements OSCListener {
 				float maccel = ((Float)args[11]).floatValue();
 				float raccel = ((Float)args[12]).floatValue();
 				
-				if (blobList.get(s_id) == null) {
+				TuioBlob tblb = blobList.get(s_id);
+				if (tblb == null) {
 					
 					TuioBlob addBlob = new TuioBlob(s_id, -1 ,xpos,ypos,angle,width,height,area);
 					frameBlobs.addElement(addBlob);
 					
 				} else {
 					
-					TuioBlob tblb = blobList.get(s_id);
-					if (tblb==null) return;
 					if ((tblb.xpos!=xpos) || (tblb.ypos!=ypos) || (tblb.x_speed!=xspeed) || (tblb.y_speed!=yspeed) || (tblb.motion_accel!=maccel)) {
 						
 						TuioBlob updateBlob = new TuioBlob(s_id,tblb.getBlobID(),xpos,ypos,angle,width,height,area);
@@ -561,15 +618,15 @@ public class TuioClient implements OSCListener {
 				for (int i=1;i<args.length;i++) {
 					// get the message content
 					long s_id = ((Integer)args[i]).longValue();
-					newBlobList.addElement(s_id);
+					newBlobList.put(s_id,Boolean.TRUE);
 					// reduce the blob list to the lost blobs
-					if (aliveBlobList.contains(s_id)) 
-						aliveBlobList.removeElement(s_id);
+					aliveBlobList.remove(s_id);
 				}
 				
 				// remove the remaining blobs
+				lostIDs = aliveBlobList.keys(lostIDs);
 				for (int i=0;i<aliveBlobList.size();i++) {
-					TuioBlob removeBlob = blobList.get(aliveBlobList.elementAt(i));
+					TuioBlob removeBlob = blobList.get(lostIDs[i]);
 					if (removeBlob==null) continue;
 					removeBlob.remove(currentTime);
 					frameBlobs.addElement(removeBlob);
@@ -669,9 +726,9 @@ public class TuioClient implements OSCListener {
 						if (listener!=null) listener.refresh(new TuioTime(currentTime,fseq));
 					}
 					
-					Vector<Long> buffer = aliveBlobList;
+					TuioSessionMap<Boolean> buffer = aliveBlobList;
 					aliveBlobList = newBlobList;
-					// recycling the vector
+					// recycling the map
 					newBlobList = buffer;				
 				}
 				
@@ -0,0 +1,242 @@
+/*
+ TUIO Java library
+ Copyright (c) 2005-2016 Martin Kaltenbrunner <martin@tuio.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 3.0 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library.
+*/
+
+package TUIO;
+
+import com.illposed.osc.*;
+import com.illposed.osc.utility.OSCByteBufferEncoder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The TuioFramePacker splits a TUIO frame into as many bundles as necessary to keep every datagram within
+ * the configured payload size, so that large frames are not fragmented by IP. Following the TUIO 1.1 rules,
+ * every bundle repeats the source and alive messages of the frame, the intermediate bundles carry an fseq of -1
+ * and only the last bundle carries the actual frame ID. A TuioClient therefore sees the complete alive list
+ * with each bundle and updates the remaining sessions as the following bundles arrive.<P>
+ * <code>
+ * TuioFramePacker packer = new TuioFramePacker(oscPort);<br>
+ * packer.beginFrame("/tuio/2Dcur", sessionIDs, sessionCount);<br>
+ * packer.addSet(setMessage);<br>
+ * packer.endFrame(frameID);<br>
+ * </code><P>
+ * The alive message itself is never split, so once it takes more than half of the payload, at about 150 sessions
+ * for the default payload size, the bundles grow by whole multiples of the payload size and are fragmented after all,
+ * leaving at least as much room for the set messages as for the repeated alive message.
+ * A TuioFramePacker is meant to be used by a single tracker thread.
+ *
+ * @author Martin Kaltenbrunner
+ * @version 1.1.6
+ */
+public class TuioFramePacker {
+
+	/**
+	 * The default payload size, an Ethernet MTU of 1500 bytes minus the IP and UDP headers
+	 */
+	public static final int DEFAULT_PAYLOAD_SIZE = 1472;
+	/**
+	 * The smallest payload size, which holds the bundle header and the fseq message of a standard profile
+	 */
+	public static final int MIN_PAYLOAD_SIZE = 64;
+
+	private OSCSender sender;
+	private int payloadSize;
+	private String source = null;
+	private String profile = null;
+
+	// the source and alive elements that start every bundle of the frame
+	private OSCByteBufferEncoder head = new OSCByteBufferEncoder();
+	private OSCByteBufferEncoder bundle = new OSCByteBufferEncoder(DEFAULT_PAYLOAD_SIZE);
+	private OSCByteBufferEncoder element = new OSCByteBufferEncoder();
+	private byte[] aliveTags = new byte[64];
+	private int fseqSize;
+	private int bundleLimit;
+	private int setCount;
+	private int bundleCount;
+
+	/**
+	 * This constructor creates a packer that sends bundles of the default payload size
+	 *
+	 * @param  sender  the transport the bundles are sent to
+	 */
+	public TuioFramePacker(OSCSender sender) {
+		this(sender, DEFAULT_PAYLOAD_SIZE);
+	}
+
+	/**
+	 * This constructor creates a packer that sends bundles of the provided payload size
+	 *
+	 * @param  sender  the transport the bundles are sent to
+	 * @param  payloadSize  the largest bundle, such as the path MTU minus 28 bytes
+	 * @throws IllegalArgumentException if the payload size is smaller than MIN_PAYLOAD_SIZE
+	 */
+	public TuioFramePacker(OSCSender sender, int payloadSize) {
+		this.sender = sender;
+		setPayloadSize(payloadSize);
+	}
+
+	/**
+	 * Sets the source name that is sent with every bundle, such as "tracker@host"
+	 *
+	 * @param  source  the source name, or null to send no source message
+	 */
+	public void setSource(String source) {
+		this.source = source;
+	}
+
+	/**
+	 * Sets the largest bundle size for the following frames
+	 *
+	 * @param  payloadSize  the largest bundle in bytes
+	 * @throws IllegalArgumentException if the payload size is smaller than MIN_PAYLOAD_SIZE
+	 */
+	public void setPayloadSize(int payloadSize) {
+		if (payloadSize<MIN_PAYLOAD_SIZE) throw new IllegalArgumentException("payload size "+payloadSize+" is smaller than "+MIN_PAYLOAD_SIZE+" bytes");
+		this.payloadSize = payloadSize;
+	}
+
+	/**
+	 * Returns the largest bundle size
+	 *
+	 * @return  the largest bundle in bytes
+	 */
+	public int getPayloadSize() {
+		return payloadSize;
+	}
+
+	/**
+	 * Starts a new frame of the provided profile with the session IDs of all currently alive sessions
+	 *
+	 * @param  profile  the TUIO profile address, such as "/tuio/2Dcur"
+	 * @param  alive  the session IDs of the alive sessions
+	 * @param  aliveCount  the number of session IDs in the alive array
+	 */
+	public void beginFrame(String profile, long[] alive, int aliveCount) {
+		if (this.profile != null) throw new IllegalStateException("the frame of "+this.profile+" has not been ended");
+
+		head.clear();
+		if (source != null) {
+			int sizePosition = head.position();
+			head.writeInt(0);
+			head.writeString(profile);
+			head.writeString(",ss");
+			head.writeString("source");
+			head.writeString(source);
+			head.writeInt(sizePosition, head.position() - sizePosition - 4);
+		}
+
+		if (aliveTags.length < aliveCount + 2) aliveTags = new byte[2 * (aliveCount + 2)];
+		aliveTags[0] = ',';
+		aliveTags[1] = 's';
+		for (int i = 0; i < aliveCount; i++) aliveTags[i + 2] = 'i';
+
+		int sizePosition = head.position();
+		head.writeInt(0);
+		head.writeString(profile);
+		head.writeString(aliveTags, 0, aliveCount + 2);
+		head.writeString("alive");
+		for (int i = 0; i < aliveCount; i++) head.writeInt((int) alive[i]);
+		head.writeInt(sizePosition, head.position() - sizePosition - 4);
+
+		// size, address, ",si", "fseq" and the frame ID
+		fseqSize = 4 + (profile.length() / 4 + 1) * 4 + 4 + 8 + 4;
+		// once the alive message leaves less than half a payload for the set messages, the bundles
+		// are fragmented anyway, so they are allowed to fill whole multiples of the payload size,
+		// with at least as much room for the set messages as the repeated alive message takes
+		bundleLimit = payloadSize;
+		int minimum = Math.max(payloadSize / 2, head.position());
+		while (bundleLimit - 16 - head.position() - fseqSize < minimum) bundleLimit += payloadSize;
+		bundleCount = 0;
+		startBundle();
+		this.profile = profile;
+	}
+
+	/**
+	 * Adds a set message to the current frame. The message is encoded right away, so a
+	 * message or OSCMessageTemplate can be reused for the next session after this call.
+	 * When the message doesn't fit into the current bundle, the bundle is sent with an fseq
+	 * of -1 and a new bundle with the same source and alive messages is started.
+	 *
+	 * @param  set  the set message of one session
+	 * @throws IOException if the transport failed to send a bundle, which also ends the frame
+	 */
+	public void addSet(OSCPacket set) throws IOException {
+		if (profile == null) throw new IllegalStateException("no frame has been started");
+		boolean added = false;
+		try {
+			int length = element.encode(set).position();
+			if ((setCount > 0) && (bundle.position() + 4 + length + fseqSize > bundleLimit)) {
+				sendBundle(-1);
+				startBundle();
+			}
+			bundle.writeInt(length);
+			bundle.writeBytes(element.getBuffer().array(), 0, length);
+			setCount++;
+			added = true;
+		} finally {
+			if (!added) profile = null;
+		}
+	}
+
+	/**
+	 * Sends the last bundle of the current frame with the provided frame ID
+	 *
+	 * @param  fseq  the frame ID
+	 * @return  the number of bundles the frame was sent in
+	 * @throws IOException if the transport failed to send the bundle
+	 */
+	public int endFrame(int fseq) throws IOException {
+		if (profile == null) throw new IllegalStateException("no frame has been started");
+		try {
+			sendBundle(fseq);
+		} finally {
+			profile = null;
+		}
+		return bundleCount;
+	}
+
+	/**
+	 * Discards the current frame without sending its last bundle, so the next frame can be started
+	 * after a failure. Bundles that were already sent with an fseq of -1 are not repeated.
+	 */
+	public void abortFrame() {
+		profile = null;
+	}
+
+	private void startBundle() {
+		bundle.clear();
+		bundle.writeString("#bundle");
+		bundle.writeTimeTag(OSCBundle.TIMETAG_IMMEDIATE);
+		bundle.writeBytes(head.getBuffer().array(), 0, head.position());
+		setCount = 0;
+	}
+
+	private void sendBundle(int fseq) throws IOException {
+		int sizePosition = bundle.position();
+		bundle.writeInt(0);
+		bundle.writeString(profile);
+		bundle.writeString(",si");
+		bundle.writeString("fseq");
+		bundle.writeInt(fseq);
+		bundle.writeInt(sizePosition, bundle.position() - sizePosition - 4);
+		ByteBuffer buffer = bundle.getBuffer();
+		sender.send(buffer.array(), buffer.arrayOffset(), bundle.position());
+		bundleCount++;
+	}
+
+}
@@ -0,0 +1,508 @@
+/*
+ TUIO Java library
+ Copyright (c) 2005-2016 Martin Kaltenbrunner <martin@tuio.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 3.0 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library.
+*/
+
+package TUIO;
+
+import com.illposed.osc.*;
+import com.illposed.osc.utility.OSCByteBufferEncoder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * The TuioGenerator produces synthetic TUIO streams for benchmarks and soak tests, without any tracker hardware.
+ * It moves the configured number of TuioObjects, TuioCursors and TuioBlobs with one of several motion models,
+ * replaces sessions at a configurable churn rate, and sends the frames through a {@link TuioServer}.
+ * Packet loss, duplication and reordering can be simulated on the way to the transport.<P>
+ * <code>
+ * TuioGenerator generator = new TuioGenerator(new OSCPortOut(InetAddress.getLoopbackAddress(),3333),seed);<br>
+ * generator.setCursorCount(20);<br>
+ * generator.setMotionModel(TuioGenerator.MOTION_RANDOM_WALK);<br>
+ * generator.run(0,true);<br>
+ * </code><P>
+ * The frame times are derived from the frame number and the frame rate rather than the clock, so the same seed
+ * and settings always produce the same bytes. The impairments draw from their own random sequence, so changing
+ * them doesn't change the generated motion. Sent to an {@link OSCMemoryPortOut}, a stream is generated once
+ * and can then be replayed into a TuioClient as often as a benchmark needs.
+ * A TuioGenerator is meant to be used by a single thread.
+ *
+ * @author Martin Kaltenbrunner
+ * @version 1.1.6
+ */
+public class TuioGenerator {
+
+	/**
+	 * The sessions don't move
+	 */
+	public static final int MOTION_STATIC = 0;
+	/**
+	 * The sessions move in a straight line and bounce off the edges
+	 */
+	public static final int MOTION_LINEAR = 1;
+	/**
+	 * The sessions move like MOTION_LINEAR but change their heading randomly in every frame
+	 */
+	public static final int MOTION_RANDOM_WALK = 2;
+	/**
+	 * The sessions move on circles of random size
+	 */
+	public static final int MOTION_CIRCULAR = 3;
+
+	// the symbols of the reacTIVision amoeba fiducial set
+	private static final int SYMBOL_COUNT = 216;
+	private static final float TWO_PI = 2.0f*(float)Math.PI;
+
+	private static class Session {
+		TuioContainer container;
+		float x, y, a, w, h;
+		float heading, rotation;
+		float cx, cy, radius, phase, direction;
+	}
+
+	private TuioServer server;
+	private Impairment impairment;
+	private Random random;
+
+	private Vector<Session> objects = new Vector<Session>();
+	private Vector<Session> cursors = new Vector<Session>();
+	private Vector<Session> blobs = new Vector<Session>();
+
+	private int objectCount = 0;
+	private int cursorCount = 0;
+	private int blobCount = 0;
+	private float churnRate = 0.0f;
+	private int frameRate = 60;
+	private int motionModel = MOTION_RANDOM_WALK;
+	private float speed = 0.2f;
+
+	private long frame = 0;
+	private long addedCount = 0;
+	private long removedCount = 0;
+
+	/**
+	 * This constructor creates a generator that sends to the provided transport
+	 *
+	 * @param  sender  the transport to send the TUIO bundles to, such as an OSCPortOut or an OSCMemoryPortOut
+	 * @param  seed  the seed of the random sequences
+	 */
+	public TuioGenerator(OSCSender sender, long seed) {
+		random = new Random(seed);
+		impairment = new Impairment(sender,new Random(~seed));
+		server = new TuioServer(impairment);
+		server.setSourceName("TuioGenerator");
+	}
+
+	/**
+	 * Sets the number of TuioObjects, which are added or removed with the next frame
+	 *
+	 * @param  count  the number of TuioObjects
+	 */
+	public void setObjectCount(int count) {
+		objectCount = count;
+	}
+
+	/**
+	 * Sets the number of TuioCursors, which are added or removed with the next frame
+	 *
+	 * @param  count  the number of TuioCursors
+	 */
+	public void setCursorCount(int count) {
+		cursorCount = count;
+	}
+
+	/**
+	 * Sets the number of TuioBlobs, which are added or removed with the next frame
+	 *
+	 * @param  count  the number of TuioBlobs
+	 */
+	public void setBlobCount(int count) {
+		blobCount = count;
+	}
+
+	/**
+	 * Sets the probability that a session is removed and replaced by a new session in each frame
+	 *
+	 * @param  rate  the churn probability between 0 and 1
+	 */
+	public void setChurnRate(float rate) {
+		churnRate = rate;
+	}
+
+	/**
+	 * Sets the frame rate, which determines the frame times and the pace of a real time run
+	 *
+	 * @param  fps  the frames per second
+	 */
+	public void setFrameRate(int fps) {
+		if (fps<=0) throw new IllegalArgumentException("the frame rate has to be positive");
+		frameRate = fps;
+	}
+
+	/**
+	 * Sets the motion model of all sessions
+	 *
+	 * @param  model  MOTION_STATIC, MOTION_LINEAR, MOTION_RANDOM_WALK or MOTION_CIRCULAR
+	 */
+	public void setMotionModel(int model) {
+		if ((model<MOTION_STATIC) || (model>MOTION_CIRCULAR)) throw new IllegalArgumentException("unknown motion model "+model);
+		motionModel = model;
+	}
+
+	/**
+	 * Sets the speed of all sessions
+	 *
+	 * @param  speed  the speed in normalized units per second
+	 */
+	public void setSpeed(float speed) {
+		this.speed = speed;
+	}
+
+	/**
+	 * Sets the probability that a bundle is dropped
+	 *
+	 * @param  rate  the loss probability between 0 and 1
+	 */
+	public void setLossRate(float rate) {
+		impairment.lossRate = rate;
+	}
+
+	/**
+	 * Sets the probability that a bundle is sent twice
+	 *
+	 * @param  rate  the duplication probability between 0 and 1
+	 */
+	public void setDuplicateRate(float rate) {
+		impairment.duplicateRate = rate;
+	}
+
+	/**
+	 * Sets the probability that a bundle is held back and sent after the following bundle
+	 *
+	 * @param  rate  the reordering probability between 0 and 1
+	 */
+	public void setReorderRate(float rate) {
+		impairment.reorderRate = rate;
+	}
+
+	/**
+	 * Sets the source name that is sent with every bundle
+	 *
+	 * @param  source  the source name, or null to send no source message
+	 */
+	public void setSourceName(String source) {
+		server.setSourceName(source);
+	}
+
+	/**
+	 * Sets the largest bundle size, larger frames are split into several bundles
+	 *
+	 * @param  payloadSize  the largest bundle in bytes
+	 * @throws IllegalArgumentException if the payload size is smaller than TuioFramePacker.MIN_PAYLOAD_SIZE
+	 */
+	public void setPayloadSize(int payloadSize) {
+		server.setPayloadSize(payloadSize);
+	}
+
+	/**
+	 * Sets the interval of the complete state updates in frame time
+	 *
+	 * @param  millis  the interval in milliseconds, or 0 to only send the changes
+	 */
+	public void setRefreshInterval(long millis) {
+		server.setRefreshInterval(millis);
+	}
+
+	/**
+	 * Returns the TuioServer that encodes the generated frames
+	 *
+	 * @return  the TuioServer of this generator
+	 */
+	public TuioServer getServer() {
+		return server;
+	}
+
+	/**
+	 * Generates and sends the next frame
+	 *
+	 * @throws IOException if the transport failed to send a bundle
+	 */
+	public void nextFrame() throws IOException {
+		long us = frame*1000000L/frameRate;
+		server.initFrame(new TuioTime(us/1000000L,us%1000000L));
+		float dt = 1.0f/frameRate;
+		updateSessions(objects,objectCount,dt);
+		updateSessions(cursors,cursorCount,dt);
+		updateSessions(blobs,blobCount,dt);
+		server.commitFrame();
+		frame++;
+	}
+
+	/**
+	 * Generates and sends the provided number of frames, either as fast as possible or paced by the frame rate.
+	 * The run ends early when the calling thread is interrupted.
+	 *
+	 * @param  frames  the number of frames, or 0 to run until interrupted
+	 * @param  realTime  true to send the frames at the frame rate
+	 * @throws IOException if the transport failed to send a bundle
+	 */
+	public void run(long frames, boolean realTime) throws IOException {
+		long interval = 1000000000L/frameRate;
+		long next = System.nanoTime();
+		for (long i=0;(frames<=0) || (i<frames);i++) {
+			if (Thread.currentThread().isInterrupted()) return;
+			nextFrame();
+			if (!realTime) continue;
+			next += interval;
+			long wait = next - System.nanoTime();
+			if (wait<=0) continue;
+			try { Thread.sleep(wait/1000000L,(int)(wait%1000000L)); }
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of generated frames
+	 *
+	 * @return  the number of generated frames
+	 */
+	public long getFrameCount() {
+		return frame;
+	}
+
+	/**
+	 * Returns the number of sessions that were added so far
+	 *
+	 * @return  the number of added sessions
+	 */
+	public long getAddedCount() {
+		return addedCount;
+	}
+
+	/**
+	 * Returns the number of sessions that were removed so far
+	 *
+	 * @return  the number of removed sessions
+	 */
+	public long getRemovedCount() {
+		return removedCount;
+	}
+
+	/**
+	 * Returns the number of bundles the TuioServer produced, before the impairments
+	 *
+	 * @return  the number of produced bundles
+	 */
+	public long getBundleCount() {
+		return impairment.bundleCount;
+	}
+
+	/**
+	 * Returns the number of bundles that were dropped
+	 *
+	 * @return  the number of dropped bundles
+	 */
+	public long getLostCount() {
+		return impairment.lostCount;
+	}
+
+	/**
+	 * Returns the number of bundles that were sent twice
+	 *
+	 * @return  the number of duplicated bundles
+	 */
+	public long getDuplicatedCount() {
+		return impairment.duplicatedCount;
+	}
+
+	/**
+	 * Returns the number of bundles that were sent after their successor
+	 *
+	 * @return  the number of reordered bundles
+	 */
+	public long getReorderedCount() {
+		return impairment.reorderedCount;
+	}
+
+	/**
+	 * Sends a bundle that is still held back for reordering and closes the transport
+	 */
+	public void close() {
+		server.close();
+	}
+
+	private void updateSessions(Vector<Session> list, int count, float dt) {
+		for (int i=list.size()-1;i>=0;i--) {
+			if ((churnRate>0) && (random.nextFloat()<churnRate)) removeSession(list.remove(i));
+		}
+		while (list.size()>count) removeSession(list.remove(list.size()-1));
+
+		int alive = list.size();
+		for (int i=0;i<alive;i++) {
+			Session s = list.elementAt(i);
+			move(s,dt);
+			if (s.container instanceof TuioObject) server.updateTuioObject((TuioObject)s.container,s.x,s.y,s.a);
+			else if (s.container instanceof TuioCursor) server.updateTuioCursor((TuioCursor)s.container,s.x,s.y);
+			else server.updateTuioBlob((TuioBlob)s.container,s.x,s.y,s.a,s.w,s.h,s.w*s.h);
+		}
+
+		while (list.size()<count) list.addElement(addSession(list));
+	}
+
+	private Session addSession(Vector<Session> list) {
+		Session s = new Session();
+		// the same number of random values for every session, whatever the motion model
+		s.x = random.nextFloat();
+		s.y = random.nextFloat();
+		s.a = random.nextFloat()*TWO_PI;
+		s.w = 0.05f + 0.15f*random.nextFloat();
+		s.h = 0.05f + 0.15f*random.nextFloat();
+		s.heading = random.nextFloat()*TWO_PI;
+		s.rotation = (random.nextFloat()-0.5f)*(float)Math.PI;
+		s.radius = 0.05f + 0.15f*random.nextFloat();
+		s.cx = s.radius + (1.0f-2.0f*s.radius)*random.nextFloat();
+		s.cy = s.radius + (1.0f-2.0f*s.radius)*random.nextFloat();
+		s.phase = random.nextFloat()*TWO_PI;
+		s.direction = random.nextBoolean() ? 1.0f : -1.0f;
+		int symbol = random.nextInt(SYMBOL_COUNT);
+		if (motionModel==MOTION_CIRCULAR) {
+			s.x = s.cx + s.radius*(float)Math.cos(s.phase);
+			s.y = s.cy + s.radius*(float)Math.sin(s.phase);
+		}
+
+		if (list==objects) s.container = server.addTuioObject(symbol,s.x,s.y,s.a);
+		else if (list==cursors) s.container = server.addTuioCursor(s.x,s.y);
+		else s.container = server.addTuioBlob(s.x,s.y,s.a,s.w,s.h,s.w*s.h);
+		addedCount++;
+		return s;
+	}
+
+	private void removeSession(Session s) {
+		if (s.container instanceof TuioObject) server.removeTuioObject((TuioObject)s.container);
+		else if (s.container instanceof TuioCursor) server.removeTuioCursor((TuioCursor)s.container);
+		else server.removeTuioBlob((TuioBlob)s.container);
+		removedCount++;
+	}
+
+	private void move(Session s, float dt) {
+		switch (motionModel) {
+			case MOTION_STATIC:
+				return;
+			case MOTION_RANDOM_WALK:
+				s.heading += (float)random.nextGaussian()*0.5f;
+				moveLinear(s,dt);
+				break;
+			case MOTION_LINEAR:
+				moveLinear(s,dt);
+				break;
+			case MOTION_CIRCULAR:
+				s.phase += s.direction*speed/s.radius*dt;
+				if (s.phase>TWO_PI) s.phase -= TWO_PI;
+				else if (s.phase<0.0f) s.phase += TWO_PI;
+				s.x = s.cx + s.radius*(float)Math.cos(s.phase);
+				s.y = s.cy + s.radius*(float)Math.sin(s.phase);
+				break;
+		}
+		s.a += s.rotation*dt;
+		if (s.a>=TWO_PI) s.a -= TWO_PI;
+		else if (s.a<0.0f) s.a += TWO_PI;
+	}
+
+	private void moveLinear(Session s, float dt) {
+		s.x += (float)Math.cos(s.heading)*speed*dt;
+		s.y += (float)Math.sin(s.heading)*speed*dt;
+		// reflect the session at the borders of the surface
+		if (s.x<0.0f) { s.x = -s.x; s.heading = (float)Math.PI - s.heading; }
+		else if (s.x>1.0f) { s.x = 2.0f - s.x; s.heading = (float)Math.PI - s.heading; }
+		if (s.y<0.0f) { s.y = -s.y; s.heading = -s.heading; }
+		else if (s.y>1.0f) { s.y = 2.0f - s.y; s.heading = -s.heading; }
+	}
+
+	/**
+	 * Drops, duplicates and reorders the bundles on their way to the actual transport
+	 */
+	private static class Impairment implements OSCSender {
+
+		private OSCSender sender;
+		private Random random;
+		private OSCByteBufferEncoder encoder = new OSCByteBufferEncoder();
+		private byte[] held = new byte[4096];
+		private int heldLength = -1;
+		private int heldCopies;
+
+		float lossRate = 0.0f;
+		float duplicateRate = 0.0f;
+		float reorderRate = 0.0f;
+
+		long bundleCount = 0;
+		long lostCount = 0;
+		long duplicatedCount = 0;
+		long reorderedCount = 0;
+
+		Impairment(OSCSender sender, Random random) {
+			this.sender = sender;
+			this.random = random;
+		}
+
+		public void send(OSCPacket packet) throws IOException {
+			ByteBuffer buffer = encoder.encode(packet);
+			send(buffer.array(),buffer.arrayOffset(),buffer.position());
+		}
+
+		public void send(byte[] bytes, int offset, int length) throws IOException {
+			bundleCount++;
+			if ((lossRate>0) && (random.nextFloat()<lossRate)) {
+				lostCount++;
+				return;
+			}
+			int copies = 1;
+			if ((duplicateRate>0) && (random.nextFloat()<duplicateRate)) {
+				copies = 2;
+				duplicatedCount++;
+			}
+			if ((heldLength<0) && (reorderRate>0) && (random.nextFloat()<reorderRate)) {
+				// the sender reuses its buffer, so the held bundle is copied
+				if (held.length<length) held = new byte[2*length];
+				System.arraycopy(bytes,offset,held,0,length);
+				heldLength = length;
+				heldCopies = copies;
+				reorderedCount++;
+				return;
+			}
+			for (int i=0;i<copies;i++) sender.send(bytes,offset,length);
+			releaseHeld();
+		}
+
+		private void releaseHeld() throws IOException {
+			if (heldLength<0) return;
+			int length = heldLength;
+			heldLength = -1;
+			for (int i=0;i<heldCopies;i++) sender.send(held,0,length);
+		}
+
+		public void close() {
+			try { releaseHeld(); }
+			catch (IOException e) {}
+			sender.close();
+		}
+
+	}
+
+}
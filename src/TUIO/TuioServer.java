@@ -0,0 +1,512 @@
+/*
+ TUIO Java library
+ Copyright (c) 2005-2016 Martin Kaltenbrunner <martin@tuio.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 3.0 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library.
+*/
+
+package TUIO;
+
+import com.illposed.osc.*;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.*;
+
+/**
+ * The TuioServer class is the central TUIO protocol encoder component, the tracker side counterpart of the {@link TuioClient}.
+ * It maintains the same TuioObject, TuioCursor and TuioBlob model, assigns the Session IDs as well as the Cursor and Blob IDs,
+ * and calculates the velocity and acceleration values. Each frame is started with initFrame(), followed by the additions,
+ * updates and removals of the current frame, and sent with commitFrame().<P>
+ * <code>
+ * TuioServer server = new TuioServer();<br>
+ * server.initFrame(TuioTime.getSessionTime());<br>
+ * TuioCursor tcur = server.addTuioCursor(x,y);<br>
+ * server.commitFrame();<br>
+ * ...<br>
+ * server.updateTuioCursor(tcur,x,y);<br>
+ * </code><P>
+ * For every profile that changed, commitFrame sends the alive message, set messages for the sessions that actually
+ * changed in this frame and the fseq message, split into several bundles by a {@link TuioFramePacker} if necessary.
+ * The complete state of all profiles is sent periodically, so that clients which connect later catch up.
+ * The messages are encoded from reusable templates and buffers, and the containers don't record their path,
+ * so that apart from the TuioTime of each frame a running server produces no garbage.
+ * A TuioServer is meant to be used by a single tracker thread.
+ *
+ * @author Martin Kaltenbrunner
+ * @version 1.1.6
+ */
+public class TuioServer {
+
+	/**
+	 * The default interval of the complete state updates in milliseconds
+	 */
+	public static final long DEFAULT_REFRESH_INTERVAL = 1000;
+
+	private OSCSender sender;
+	private TuioFramePacker packer;
+
+	private Vector<TuioObject> objectList = new Vector<TuioObject>();
+	private Vector<TuioCursor> cursorList = new Vector<TuioCursor>();
+	private Vector<TuioBlob> blobList = new Vector<TuioBlob>();
+	private BitSet cursorIDs = new BitSet();
+	private BitSet blobIDs = new BitSet();
+
+	private boolean updateObjects = false;
+	private boolean updateCursors = false;
+	private boolean updateBlobs = false;
+
+	private long sessionID = 0;
+	private long currentFrame = 0;
+	private TuioTime currentFrameTime;
+	private long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+	private long lastRefresh = 0;
+	private boolean sendFailed = false;
+
+	private long[] aliveIDs = new long[64];
+	private OSCMessageTemplate objectSet = new OSCMessageTemplate("/tuio/2Dobj",",siiffffffff");
+	private OSCMessageTemplate cursorSet = new OSCMessageTemplate("/tuio/2Dcur",",sifffff");
+	private OSCMessageTemplate blobSet = new OSCMessageTemplate("/tuio/2Dblb",",sifffffffffff");
+
+	/**
+	 * The default constructor creates a server that sends to the default TUIO port 3333 on the local host
+	 *
+	 * @throws IOException if the UDP socket can't be created
+	 */
+	public TuioServer() throws IOException {
+		this(InetAddress.getLoopbackAddress().getHostAddress(), 3333);
+	}
+
+	/**
+	 * This constructor creates a server that sends to the provided host and port
+	 *
+	 * @param  host  the host name or address of the TUIO client
+	 * @param  port  the port number of the TUIO client
+	 * @throws IOException if the UDP socket can't be created
+	 */
+	public TuioServer(String host, int port) throws IOException {
+		this(new OSCPortOut(InetAddress.getByName(host), port));
+	}
+
+	/**
+	 * This constructor creates a server that sends to the provided transport, such as an
+	 * OSCAsyncPortOut, an OSCStreamPortOut or an OSCSharedMemoryPortOut
+	 *
+	 * @param  sender  the transport to send TUIO bundles to
+	 */
+	public TuioServer(OSCSender sender) {
+		this.sender = sender;
+		packer = new TuioFramePacker(sender);
+		objectSet.setString(0,"set");
+		cursorSet.setString(0,"set");
+		blobSet.setString(0,"set");
+		// a client in the same process may already have started the session clock
+		if (TuioTime.getStartTime().getTotalMilliseconds()==0) TuioTime.initSession();
+		currentFrameTime = TuioTime.getSessionTime();
+	}
+
+	/**
+	 * Sets the source name that is sent with every bundle, such as "tracker@host"
+	 *
+	 * @param  source  the source name, or null to send no source message
+	 */
+	public void setSourceName(String source) {
+		packer.setSource(source);
+	}
+
+	/**
+	 * Sets the largest bundle size, larger frames are split into several bundles
+	 *
+	 * @param  payloadSize  the largest bundle in bytes, such as the path MTU minus 28 bytes
+	 * @throws IllegalArgumentException if the payload size is smaller than TuioFramePacker.MIN_PAYLOAD_SIZE
+	 */
+	public void setPayloadSize(int payloadSize) {
+		packer.setPayloadSize(payloadSize);
+	}
+
+	/**
+	 * Sets the interval of the complete state updates for clients that connect later
+	 *
+	 * @param  millis  the interval in milliseconds, or 0 to only send the changes
+	 */
+	public void setRefreshInterval(long millis) {
+		refreshInterval = millis;
+	}
+
+	/**
+	 * Starts a new frame with the provided time, all following changes belong to this frame
+	 *
+	 * @param  ttime  the time of the frame, usually TuioTime.getSessionTime()
+	 */
+	public void initFrame(TuioTime ttime) {
+		currentFrameTime = ttime;
+		currentFrame++;
+	}
+
+	/**
+	 * Sends the changes of the current frame, or the complete state when the refresh interval has passed
+	 * or the previous frame could not be sent
+	 *
+	 * @throws IOException if the transport failed to send a bundle
+	 */
+	public void commitFrame() throws IOException {
+		boolean refresh = sendFailed;
+		long now = currentFrameTime.getTotalMilliseconds();
+		if ((refreshInterval > 0) && (now - lastRefresh >= refreshInterval)) {
+			refresh = true;
+			lastRefresh = now;
+		}
+
+		sendFailed = true;
+		if (updateObjects || refresh) sendObjects(refresh);
+		if (updateCursors || refresh) sendCursors(refresh);
+		if (updateBlobs || refresh) sendBlobs(refresh);
+		sendFailed = false;
+		updateObjects = false;
+		updateCursors = false;
+		updateBlobs = false;
+	}
+
+	/**
+	 * Adds a new TuioObject with the provided Symbol ID, position and angle to the current frame
+	 *
+	 * @param  sym  the Symbol ID of the marker
+	 * @param  x  the X coordinate
+	 * @param  y  the Y coordinate
+	 * @param  a  the angle
+	 * @return  the new TuioObject
+	 */
+	public TuioObject addTuioObject(int sym, float x, float y, float a) {
+		TuioObject tobj = new TuioObject(currentFrameTime,sessionID++,sym,x,y,a);
+		tobj.currentTime = currentFrameTime;
+		objectList.addElement(tobj);
+		updateObjects = true;
+		return tobj;
+	}
+
+	/**
+	 * Updates the position and angle of the provided TuioObject in the current frame.
+	 * A set message is only sent if the values actually changed.
+	 *
+	 * @param  tobj  the TuioObject to update
+	 * @param  x  the X coordinate
+	 * @param  y  the Y coordinate
+	 * @param  a  the angle
+	 */
+	public void updateTuioObject(TuioObject tobj, float x, float y, float a) {
+		float dt = getDeltaTime(tobj);
+		boolean changed = move(tobj,x,y,dt);
+		float last_rotation_speed = tobj.rotation_speed;
+		float rotation_speed = getRotationSpeed(tobj.angle,a,dt);
+		float rotation_accel = (dt>0) ? (rotation_speed-last_rotation_speed)/dt : 0.0f;
+		if ((tobj.angle!=a) || (tobj.rotation_speed!=rotation_speed) || (tobj.rotation_accel!=rotation_accel)) changed = true;
+		tobj.angle = a;
+		tobj.rotation_speed = rotation_speed;
+		tobj.rotation_accel = rotation_accel;
+		if ((rotation_accel!=0) && (tobj.state!=TuioContainer.TUIO_STOPPED)) tobj.state = TuioObject.TUIO_ROTATING;
+		if (changed) {
+			tobj.currentTime = currentFrameTime;
+			updateObjects = true;
+		}
+	}
+
+	/**
+	 * Removes the provided TuioObject in the current frame
+	 *
+	 * @param  tobj  the TuioObject to remove
+	 */
+	public void removeTuioObject(TuioObject tobj) {
+		if (!objectList.removeElement(tobj)) return;
+		tobj.remove(currentFrameTime);
+		updateObjects = true;
+	}
+
+	/**
+	 * Adds a new TuioCursor at the provided position to the current frame,
+	 * it gets the lowest Cursor ID that is currently not in use
+	 *
+	 * @param  x  the X coordinate
+	 * @param  y  the Y coordinate
+	 * @return  the new TuioCursor
+	 */
+	public TuioCursor addTuioCursor(float x, float y) {
+		int c_id = cursorIDs.nextClearBit(0);
+		cursorIDs.set(c_id);
+		TuioCursor tcur = new TuioCursor(currentFrameTime,sessionID++,c_id,x,y);
+		tcur.currentTime = currentFrameTime;
+		cursorList.addElement(tcur);
+		updateCursors = true;
+		return tcur;
+	}
+
+	/**
+	 * Updates the position of the provided TuioCursor in the current frame.
+	 * A set message is only sent if the values actually changed.
+	 *
+	 * @param  tcur  the TuioCursor to update
+	 * @param  x  the X coordinate
+	 * @param  y  the Y coordinate
+	 */
+	public void updateTuioCursor(TuioCursor tcur, float x, float y) {
+		if (move(tcur,x,y,getDeltaTime(tcur))) {
+			tcur.currentTime = currentFrameTime;
+			updateCursors = true;
+		}
+	}
+
+	/**
+	 * Removes the provided TuioCursor in the current frame, its Cursor ID becomes available again
+	 *
+	 * @param  tcur  the TuioCursor to remove
+	 */
+	public void removeTuioCursor(TuioCursor tcur) {
+		if (!cursorList.removeElement(tcur)) return;
+		cursorIDs.clear(tcur.getCursorID());
+		tcur.remove(currentFrameTime);
+		updateCursors = true;
+	}
+
+	/**
+	 * Adds a new TuioBlob with the provided geometry to the current frame,
+	 * it gets the lowest Blob ID that is currently not in use
+	 *
+	 * @param  x  the X coordinate
+	 * @param  y  the Y coordinate
+	 * @param  a  the angle
+	 * @param  w  the width
+	 * @param  h  the height
+	 * @param  f  the area
+	 * @return  the new TuioBlob
+	 */
+	public TuioBlob addTuioBlob(float x, float y, float a, float w, float h, float f) {
+		int b_id = blobIDs.nextClearBit(0);
+		blobIDs.set(b_id);
+		TuioBlob tblb = new TuioBlob(currentFrameTime,sessionID++,b_id,x,y,a,w,h,f);
+		tblb.currentTime = currentFrameTime;
+		blobList.addElement(tblb);
+		updateBlobs = true;
+		return tblb;
+	}
+
+	/**
+	 * Updates the geometry of the provided TuioBlob in the current frame.
+	 * A set message is only sent if the values actually changed.
+	 *
+	 * @param  tblb  the TuioBlob to update
+	 * @param  x  the X coordinate
+	 * @param  y  the Y coordinate
+	 * @param  a  the angle
+	 * @param  w  the width
+	 * @param  h  the height
+	 * @param  f  the area
+	 */
+	public void updateTuioBlob(TuioBlob tblb, float x, float y, float a, float w, float h, float f) {
+		float dt = getDeltaTime(tblb);
+		boolean changed = move(tblb,x,y,dt);
+		float last_rotation_speed = tblb.rotation_speed;
+		float rotation_speed = getRotationSpeed(tblb.angle,a,dt);
+		float rotation_accel = (dt>0) ? (rotation_speed-last_rotation_speed)/dt : 0.0f;
+		if ((tblb.angle!=a) || (tblb.rotation_speed!=rotation_speed) || (tblb.rotation_accel!=rotation_accel)) changed = true;
+		if ((tblb.width!=w) || (tblb.height!=h) || (tblb.area!=f)) changed = true;
+		tblb.angle = a;
+		tblb.width = w;
+		tblb.height = h;
+		tblb.area = f;
+		tblb.rotation_speed = rotation_speed;
+		tblb.rotation_accel = rotation_accel;
+		if ((rotation_accel!=0) && (tblb.state!=TuioContainer.TUIO_STOPPED)) tblb.state = TuioBlob.TUIO_ROTATING;
+		if (changed) {
+			tblb.currentTime = currentFrameTime;
+			updateBlobs = true;
+		}
+	}
+
+	/**
+	 * Removes the provided TuioBlob in the current frame, its Blob ID becomes available again
+	 *
+	 * @param  tblb  the TuioBlob to remove
+	 */
+	public void removeTuioBlob(TuioBlob tblb) {
+		if (!blobList.removeElement(tblb)) return;
+		blobIDs.clear(tblb.getBlobID());
+		tblb.remove(currentFrameTime);
+		updateBlobs = true;
+	}
+
+	/**
+	 * Returns an ArrayList of all currently active TuioObjects
+	 *
+	 * @return  an ArrayList of all currently active TuioObjects
+	 */
+	public ArrayList<TuioObject> getTuioObjectList() {
+		return new ArrayList<TuioObject>(objectList);
+	}
+
+	/**
+	 * Returns an ArrayList of all currently active TuioCursors
+	 *
+	 * @return  an ArrayList of all currently active TuioCursors
+	 */
+	public ArrayList<TuioCursor> getTuioCursorList() {
+		return new ArrayList<TuioCursor>(cursorList);
+	}
+
+	/**
+	 * Returns an ArrayList of all currently active TuioBlobs
+	 *
+	 * @return  an ArrayList of all currently active TuioBlobs
+	 */
+	public ArrayList<TuioBlob> getTuioBlobList() {
+		return new ArrayList<TuioBlob>(blobList);
+	}
+
+	/**
+	 * Returns the ID of the current frame
+	 *
+	 * @return  the current frame ID
+	 */
+	public long getFrameID() {
+		return currentFrame;
+	}
+
+	/**
+	 * Closes the transport
+	 */
+	public void close() {
+		sender.close();
+	}
+
+	private float getDeltaTime(TuioContainer tcon) {
+		TuioTime last = tcon.currentTime;
+		long us = (currentFrameTime.getSeconds()-last.getSeconds())*1000000L + currentFrameTime.getMicroseconds()-last.getMicroseconds();
+		return us/1000000.0f;
+	}
+
+	/**
+	 * Assigns the position and calculates the velocity and acceleration like TuioContainer.update
+	 * without recording the path, returns true if any of the values changed
+	 */
+	private boolean move(TuioContainer tcon, float xp, float yp, float dt) {
+		if (dt<=0) {
+			// another update within the same frame
+			boolean moved = (tcon.xpos!=xp) || (tcon.ypos!=yp);
+			tcon.xpos = xp;
+			tcon.ypos = yp;
+			return moved;
+		}
+		float dx = xp - tcon.xpos;
+		float dy = yp - tcon.ypos;
+		float x_speed = dx/dt;
+		float y_speed = dy/dt;
+		float motion_speed = (float)Math.sqrt(dx*dx+dy*dy)/dt;
+		float motion_accel = (motion_speed - tcon.motion_speed)/dt;
+		boolean changed = (dx!=0) || (dy!=0) || (x_speed!=tcon.x_speed) || (y_speed!=tcon.y_speed) || (motion_accel!=tcon.motion_accel);
+
+		tcon.xpos = xp;
+		tcon.ypos = yp;
+		tcon.x_speed = x_speed;
+		tcon.y_speed = y_speed;
+		tcon.motion_speed = motion_speed;
+		tcon.motion_accel = motion_accel;
+		if (motion_accel>0) tcon.state = TuioContainer.TUIO_ACCELERATING;
+		else if (motion_accel<0) tcon.state = TuioContainer.TUIO_DECELERATING;
+		else tcon.state = TuioContainer.TUIO_STOPPED;
+		return changed;
+	}
+
+	private float getRotationSpeed(float last_angle, float angle, float dt) {
+		if (dt<=0) return 0.0f;
+		float da = (angle-last_angle)/(2.0f*(float)Math.PI);
+		if (da>0.75f) da-=1.0f;
+		else if (da<-0.75f) da+=1.0f;
+		return da/dt;
+	}
+
+	private long[] getAliveIDs(Vector<? extends TuioContainer> list) {
+		if (aliveIDs.length < list.size()) aliveIDs = new long[2*list.size()];
+		for (int i=0;i<list.size();i++) aliveIDs[i] = list.elementAt(i).getSessionID();
+		return aliveIDs;
+	}
+
+	private void sendObjects(boolean refresh) throws IOException {
+		try {
+			packer.beginFrame("/tuio/2Dobj",getAliveIDs(objectList),objectList.size());
+			for (int i=0;i<objectList.size();i++) {
+				TuioObject tobj = objectList.elementAt(i);
+				if (!refresh && (tobj.currentTime!=currentFrameTime)) continue;
+				objectSet.setInt(1,(int)tobj.session_id);
+				objectSet.setInt(2,tobj.symbol_id);
+				objectSet.setFloat(3,tobj.xpos);
+				objectSet.setFloat(4,tobj.ypos);
+				objectSet.setFloat(5,tobj.angle);
+				objectSet.setFloat(6,tobj.x_speed);
+				objectSet.setFloat(7,tobj.y_speed);
+				objectSet.setFloat(8,tobj.rotation_speed);
+				objectSet.setFloat(9,tobj.motion_accel);
+				objectSet.setFloat(10,tobj.rotation_accel);
+				packer.addSet(objectSet);
+			}
+			packer.endFrame((int)currentFrame);
+		} finally {
+			// a failed send must not leave the frame open for the next one
+			packer.abortFrame();
+		}
+	}
+
+	private void sendCursors(boolean refresh) throws IOException {
+		try {
+			packer.beginFrame("/tuio/2Dcur",getAliveIDs(cursorList),cursorList.size());
+			for (int i=0;i<cursorList.size();i++) {
+				TuioCursor tcur = cursorList.elementAt(i);
+				if (!refresh && (tcur.currentTime!=currentFrameTime)) continue;
+				cursorSet.setInt(1,(int)tcur.session_id);
+				cursorSet.setFloat(2,tcur.xpos);
+				cursorSet.setFloat(3,tcur.ypos);
+				cursorSet.setFloat(4,tcur.x_speed);
+				cursorSet.setFloat(5,tcur.y_speed);
+				cursorSet.setFloat(6,tcur.motion_accel);
+				packer.addSet(cursorSet);
+			}
+			packer.endFrame((int)currentFrame);
+		} finally {
+			packer.abortFrame();
+		}
+	}
+
+	private void sendBlobs(boolean refresh) throws IOException {
+		try {
+			packer.beginFrame("/tuio/2Dblb",getAliveIDs(blobList),blobList.size());
+			for (int i=0;i<blobList.size();i++) {
+				TuioBlob tblb = blobList.elementAt(i);
+				if (!refresh && (tblb.currentTime!=currentFrameTime)) continue;
+				blobSet.setInt(1,(int)tblb.session_id);
+				blobSet.setFloat(2,tblb.xpos);
+				blobSet.setFloat(3,tblb.ypos);
+				blobSet.setFloat(4,tblb.angle);
+				blobSet.setFloat(5,tblb.width);
+				blobSet.setFloat(6,tblb.height);
+				blobSet.setFloat(7,tblb.area);
+				blobSet.setFloat(8,tblb.x_speed);
+				blobSet.setFloat(9,tblb.y_speed);
+				blobSet.setFloat(10,tblb.rotation_speed);
+				blobSet.setFloat(11,tblb.motion_accel);
+				blobSet.setFloat(12,tblb.rotation_accel);
+				packer.addSet(blobSet);
+			}
+			packer.endFrame((int)currentFrame);
+		} finally {
+			packer.abortFrame();
+		}
+	}
+
+}
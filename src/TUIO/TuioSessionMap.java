@@ -0,0 +1,293 @@
+/*
+ TUIO Java library
+ Copyright (c) 2005-2016 Martin Kaltenbrunner <martin@tuio.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 3.0 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library.
+*/
+
+package TUIO;
+
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The TuioSessionMap maps Session IDs to TUIO containers like a Hashtable, but keeps the keys as primitive longs
+ * in an open addressing table with linear probing, so a lookup neither boxes the Session ID nor takes a monitor.
+ * It has a single writer, the thread that decodes the TUIO messages, and any number of concurrent readers:
+ * get() reads optimistically and only falls back to a read lock if a write interfered with the lookup.<P>
+ * <code>
+ * TuioSessionMap&lt;TuioCursor&gt; cursors = new TuioSessionMap&lt;TuioCursor&gt;();<br>
+ * cursors.put(tcur.getSessionID(),tcur);<br>
+ * TuioCursor tcur = cursors.get(s_id);<br>
+ * </code>
+ *
+ * @author Martin Kaltenbrunner
+ * @version 1.1.6
+ */
+public class TuioSessionMap<V> {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private final StampedLock lock = new StampedLock();
+	// a slot is empty if its value is null, the table is at most half full
+	private long[] keys;
+	private Object[] values;
+	private int size = 0;
+
+	/**
+	 * The default constructor creates an empty map for 8 sessions, which grows as needed
+	 */
+	public TuioSessionMap() {
+		this(DEFAULT_CAPACITY/2);
+	}
+
+	/**
+	 * This constructor creates an empty map for the provided number of sessions, which grows as needed
+	 *
+	 * @param  sessions  the expected number of sessions
+	 */
+	public TuioSessionMap(int sessions) {
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity<2*sessions) capacity *= 2;
+		keys = new long[capacity];
+		values = new Object[capacity];
+	}
+
+	/**
+	 * Returns the value of the provided Session ID, this method may be called from any thread
+	 *
+	 * @param  key  the Session ID
+	 * @return  the value of the Session ID or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		long stamp = lock.tryOptimisticRead();
+		Object value = find(keys,values,key);
+		if (lock.validate(stamp)) return (V)value;
+		stamp = lock.readLock();
+		try { return (V)find(keys,values,key); }
+		finally { lock.unlockRead(stamp); }
+	}
+
+	/**
+	 * Returns true if the provided Session ID is present, this method may be called from any thread
+	 *
+	 * @param  key  the Session ID
+	 * @return  true if the Session ID is present
+	 */
+	public boolean containsKey(long key) {
+		return get(key)!=null;
+	}
+
+	/**
+	 * Assigns a value to the provided Session ID
+	 *
+	 * @param  key  the Session ID
+	 * @param  value  the value, which must not be null
+	 * @return  the previous value of the Session ID or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		if (value==null) throw new NullPointerException();
+		long stamp = lock.writeLock();
+		try {
+			if (2*(size+1)>keys.length) resize(2*keys.length);
+			int mask = keys.length-1;
+			int i = slot(key,mask);
+			while (values[i]!=null) {
+				if (keys[i]==key) {
+					Object previous = values[i];
+					values[i] = value;
+					return (V)previous;
+				}
+				i = (i+1)&mask;
+			}
+			keys[i] = key;
+			values[i] = value;
+			size++;
+			return null;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Removes the provided Session ID
+	 *
+	 * @param  key  the Session ID
+	 * @return  the previous value of the Session ID or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		long stamp = lock.writeLock();
+		try {
+			int mask = keys.length-1;
+			int i = slot(key,mask);
+			while (values[i]!=null && keys[i]!=key) i = (i+1)&mask;
+			Object previous = values[i];
+			if (previous==null) return null;
+
+			// move the following entries of the probe sequence back into the gap, so no tombstones are needed
+			int j = i;
+			while (true) {
+				j = (j+1)&mask;
+				if (values[j]==null) break;
+				int home = slot(keys[j],mask);
+				boolean movable = (j>i) ? ((home<=i) || (home>j)) : ((home<=i) && (home>j));
+				if (movable) {
+					keys[i] = keys[j];
+					values[i] = values[j];
+					i = j;
+				}
+			}
+			values[i] = null;
+			size--;
+			return (V)previous;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Removes all Session IDs, the table keeps its size
+	 */
+	public void clear() {
+		long stamp = lock.writeLock();
+		try {
+			Arrays.fill(values,null);
+			size = 0;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Returns the number of Session IDs
+	 *
+	 * @return  the number of Session IDs
+	 */
+	public int size() {
+		long stamp = lock.tryOptimisticRead();
+		int count = size;
+		if (lock.validate(stamp)) return count;
+		stamp = lock.readLock();
+		try { return size; }
+		finally { lock.unlockRead(stamp); }
+	}
+
+	/**
+	 * Returns true if there are no Session IDs
+	 *
+	 * @return  true if the map is empty
+	 */
+	public boolean isEmpty() {
+		return size()==0;
+	}
+
+	/**
+	 * Returns a copy of all values, this method may be called from any thread
+	 *
+	 * @return  an ArrayList of all values
+	 */
+	public ArrayList<V> values() {
+		return values(new ArrayList<V>(size()));
+	}
+
+	/**
+	 * Adds all values to the provided collection, this method may be called from any thread
+	 *
+	 * @param  collection  the collection to add the values to, such as a Vector
+	 * @return  the provided collection
+	 */
+	@SuppressWarnings("unchecked")
+	public <C extends Collection<? super V>> C values(C collection) {
+		long stamp = lock.readLock();
+		try {
+			for (int i=0;i<values.length;i++) {
+				if (values[i]!=null) collection.add((V)values[i]);
+			}
+			return collection;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Returns an Enumeration of a copy of all values, like Hashtable.elements()
+	 *
+	 * @return  an Enumeration of all values
+	 */
+	public Enumeration<V> elements() {
+		return Collections.enumeration(values());
+	}
+
+	/**
+	 * Copies all Session IDs into the provided array, or a larger one if it is too small
+	 *
+	 * @param  buffer  the array to copy the Session IDs to
+	 * @return  the array with the Session IDs in its first size() elements
+	 */
+	public long[] keys(long[] buffer) {
+		long stamp = lock.readLock();
+		try {
+			if (buffer.length<size) buffer = new long[2*size];
+			int count = 0;
+			for (int i=0;i<values.length;i++) {
+				if (values[i]!=null) buffer[count++] = keys[i];
+			}
+			return buffer;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	private static int slot(long key, int mask) {
+		// eight consecutive Session IDs share a cache line of keys, and these blocks are spread
+		// with a multiplicative hash, so that the probe sequences stay short even for dense IDs
+		long h = (key>>>3)*0x9E3779B97F4A7C15L;
+		return (((int)(h>>>32)<<3)|(int)(key&7))&mask;
+	}
+
+	private static Object find(long[] keys, Object[] values, long key) {
+		// an optimistic read may see the arrays of two different resizes, which validate() rejects afterwards
+		if (keys.length!=values.length) return null;
+		int mask = keys.length-1;
+		int i = slot(key,mask);
+		for (int n=0;n<=mask;n++) {
+			Object value = values[i];
+			if (value==null) return null;
+			if (keys[i]==key) return value;
+			i = (i+1)&mask;
+		}
+		return null;
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		long[] newKeys = new long[capacity];
+		Object[] newValues = new Object[capacity];
+		int mask = capacity-1;
+		for (int n=0;n<oldValues.length;n++) {
+			if (oldValues[n]==null) continue;
+			int i = slot(oldKeys[n],mask);
+			while (newValues[i]!=null) i = (i+1)&mask;
+			newKeys[i] = oldKeys[n];
+			newValues[i] = oldValues[n];
+		}
+		keys = newKeys;
+		values = newValues;
+	}
+
+}
@@ -0,0 +1,137 @@
+/*
+ TUIO Java Benchmark
+ Copyright (c) 2005-2016 Martin Kaltenbrunner <martin@tuio.org>
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files
+ (the "Software"), to deal in the Software without restriction,
+ including without limitation the rights to use, copy, modify, merge,
+ publish, distribute, sublicense, and/or sell copies of the Software,
+ and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import TUIO.*;
+import com.illposed.osc.*;
+import java.util.Hashtable;
+
+public class TuioBenchmark {
+
+	static final int[] SESSIONS = { 10, 100, 10000 };
+	static final int SET_MESSAGES = 500000;
+	static final int LOOKUPS = 20000000;
+
+	static long sink = 0;
+
+	public static void main(String argv[]) throws Exception {
+
+		System.out.println("session lookup per set message, alone and with a concurrent reader");
+		System.out.println("sessions   Hashtable<Long>   TuioSessionMap   Hashtable<Long>   TuioSessionMap");
+		for (int r=0;r<2;r++) {
+			for (int n : SESSIONS) {
+				long[] ids = sessionIDs(n);
+				double boxed = lookupHashtable(ids,false);
+				double primitive = lookupSessionMap(ids,false);
+				double boxedShared = lookupHashtable(ids,true);
+				double primitiveShared = lookupSessionMap(ids,true);
+				// the first round only warms up the JIT
+				if (r>0) System.out.println(String.format("%8d %14.1f ns %13.1f ns %14.1f ns %13.1f ns",n,boxed,primitive,boxedShared,primitiveShared));
+			}
+		}
+
+		System.out.println();
+		System.out.println("TuioClient decoding per set message");
+		System.out.println("sessions   frames      total");
+		for (int n : SESSIONS) {
+			int frames = Math.max(20,SET_MESSAGES/n);
+			OSCMemoryPortOut recorder = new OSCMemoryPortOut();
+			TuioGenerator generator = new TuioGenerator(recorder,n);
+			generator.setCursorCount(n);
+			generator.setMotionModel(TuioGenerator.MOTION_RANDOM_WALK);
+			generator.setRefreshInterval(0);
+			generator.run(frames,false);
+
+			decode(recorder);
+			long nanos = decode(recorder);
+			System.out.println(String.format("%8d %8d %9.1f ns",n,frames,(double)nanos/((long)frames*n)));
+		}
+	}
+
+	/**
+	 * The Session IDs of n sessions after some churn, as a client would see them
+	 */
+	static long[] sessionIDs(int n) {
+		long[] ids = new long[n];
+		for (int i=0;i<n;i++) ids[i] = 3*i + (i%7);
+		return ids;
+	}
+
+	static double lookupHashtable(long[] ids, boolean shared) throws Exception {
+		final Hashtable<Long,TuioCursor> table = new Hashtable<Long,TuioCursor>();
+		for (int i=0;i<ids.length;i++) table.put(ids[i],new TuioCursor(ids[i],i,0.5f,0.5f));
+		final long[] keys = ids;
+		// a reader such as a render thread polling the sessions
+		Thread reader = new Thread() {
+			public void run() {
+				long sum = 0;
+				for (int i=0;!isInterrupted();i++) sum += table.get(keys[i%keys.length]).getCursorID();
+				sink += sum;
+			}
+		};
+		if (shared) reader.start();
+		long sum = 0;
+		long start = System.nanoTime();
+		for (int i=0;i<LOOKUPS;i++) sum += table.get(ids[i%ids.length]).getCursorID();
+		long nanos = System.nanoTime()-start;
+		sink += sum;
+		reader.interrupt();
+		reader.join();
+		return (double)nanos/LOOKUPS;
+	}
+
+	static double lookupSessionMap(long[] ids, boolean shared) throws Exception {
+		final TuioSessionMap<TuioCursor> map = new TuioSessionMap<TuioCursor>();
+		for (int i=0;i<ids.length;i++) map.put(ids[i],new TuioCursor(ids[i],i,0.5f,0.5f));
+		final long[] keys = ids;
+		Thread reader = new Thread() {
+			public void run() {
+				long sum = 0;
+				for (int i=0;!isInterrupted();i++) sum += map.get(keys[i%keys.length]).getCursorID();
+				sink += sum;
+			}
+		};
+		if (shared) reader.start();
+		long sum = 0;
+		long start = System.nanoTime();
+		for (int i=0;i<LOOKUPS;i++) sum += map.get(ids[i%ids.length]).getCursorID();
+		long nanos = System.nanoTime()-start;
+		sink += sum;
+		reader.interrupt();
+		reader.join();
+		return (double)nanos/LOOKUPS;
+	}
+
+	static long decode(OSCMemoryPortOut recorder) throws Exception {
+		OSCLoopbackPortIn receiver = new OSCLoopbackPortIn();
+		TuioClient client = new TuioClient(receiver);
+		client.connect();
+		long start = System.nanoTime();
+		recorder.replay(new OSCLoopbackPortOut(receiver));
+		long nanos = System.nanoTime()-start;
+		sink += client.getTuioCursorList().size();
+		receiver.stopListening();
+		receiver.close();
+		return nanos;
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ TUIO Java Console Example
+ Copyright (c) 2005-2016 Martin Kaltenbrunner <martin@tuio.org>
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files
+ (the "Software"), to deal in the Software without restriction,
+ including without limitation the rights to use, copy, modify, merge,
+ publish, distribute, sublicense, and/or sell copies of the Software,
+ and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import TUIO.*;
+import com.illposed.osc.*;
+import java.io.FileOutputStream;
+import java.net.InetAddress;
+
+public class TuioGen {
+
+	static final String USAGE = "usage: java TuioGen [-host name] [-port n] [-obj n] [-cur n] [-blb n] [-fps n] [-churn p]\n"
+		+ "                    [-motion static|linear|walk|circle] [-speed v] [-loss p] [-dup p] [-reorder p]\n"
+		+ "                    [-seed n] [-frames n] [-fast] [-file name]";
+
+	public static void main(String argv[]) {
+
+		String host = InetAddress.getLoopbackAddress().getHostAddress();
+		int port = 3333;
+		int objects = 0, cursors = 10, blobs = 0;
+		int fps = 60;
+		float churn = 0.0f, speed = 0.2f;
+		float loss = 0.0f, dup = 0.0f, reorder = 0.0f;
+		int motion = TuioGenerator.MOTION_RANDOM_WALK;
+		long seed = 0;
+		long frames = 0;
+		boolean realTime = true;
+		String file = null;
+
+		try {
+			for (int i=0;i<argv.length;i++) {
+				String option = argv[i];
+				if (option.equals("-fast")) { realTime = false; continue; }
+				if (i+1>=argv.length) throw new IllegalArgumentException(option);
+				String value = argv[++i];
+				if (option.equals("-host")) host = value;
+				else if (option.equals("-port")) port = Integer.parseInt(value);
+				else if (option.equals("-obj")) objects = Integer.parseInt(value);
+				else if (option.equals("-cur")) cursors = Integer.parseInt(value);
+				else if (option.equals("-blb")) blobs = Integer.parseInt(value);
+				else if (option.equals("-fps")) fps = Integer.parseInt(value);
+				else if (option.equals("-churn")) churn = Float.parseFloat(value);
+				else if (option.equals("-speed")) speed = Float.parseFloat(value);
+				else if (option.equals("-loss")) loss = Float.parseFloat(value);
+				else if (option.equals("-dup")) dup = Float.parseFloat(value);
+				else if (option.equals("-reorder")) reorder = Float.parseFloat(value);
+				else if (option.equals("-seed")) seed = Long.parseLong(value);
+				else if (option.equals("-frames")) frames = Long.parseLong(value);
+				else if (option.equals("-file")) file = value;
+				else if (option.equals("-motion")) {
+					if (value.equals("static")) motion = TuioGenerator.MOTION_STATIC;
+					else if (value.equals("linear")) motion = TuioGenerator.MOTION_LINEAR;
+					else if (value.equals("walk")) motion = TuioGenerator.MOTION_RANDOM_WALK;
+					else if (value.equals("circle")) motion = TuioGenerator.MOTION_CIRCULAR;
+					else throw new IllegalArgumentException(value);
+				} else throw new IllegalArgumentException(option);
+			}
+			if ((file!=null) && (frames<=0)) throw new IllegalArgumentException("-file needs -frames");
+		} catch (Exception e) {
+			System.out.println(USAGE);
+			return;
+		}
+
+		try {
+			OSCMemoryPortOut recorder = null;
+			OSCSender sender;
+			if (file!=null) sender = recorder = new OSCMemoryPortOut();
+			else sender = new OSCPortOut(InetAddress.getByName(host),port);
+
+			TuioGenerator generator = new TuioGenerator(sender,seed);
+			generator.setObjectCount(objects);
+			generator.setCursorCount(cursors);
+			generator.setBlobCount(blobs);
+			generator.setFrameRate(fps);
+			generator.setChurnRate(churn);
+			generator.setMotionModel(motion);
+			generator.setSpeed(speed);
+			generator.setLossRate(loss);
+			generator.setDuplicateRate(dup);
+			generator.setReorderRate(reorder);
+
+			if (file!=null) System.out.println("writing "+frames+" frames to "+file);
+			else System.out.println("sending TUIO messages to "+host+":"+port);
+			long start = System.currentTimeMillis();
+			generator.run(frames,realTime && (file==null));
+			generator.close();
+			long millis = Math.max(1,System.currentTimeMillis()-start);
+
+			if (recorder!=null) {
+				FileOutputStream out = new FileOutputStream(file);
+				try { out.write(recorder.getBuffer(),0,recorder.size()); }
+				finally { out.close(); }
+			}
+			System.out.println(generator.getFrameCount()+" frames, "+generator.getBundleCount()+" bundles in "+millis+" ms, "
+				+generator.getAddedCount()+" added, "+generator.getRemovedCount()+" removed, "
+				+generator.getLostCount()+" lost, "+generator.getDuplicatedCount()+" duplicated, "+generator.getReorderedCount()+" reordered");
+		} catch (Exception e) {
+			System.out.println("TuioGen: "+e.getMessage());
+		}
+	}
+}
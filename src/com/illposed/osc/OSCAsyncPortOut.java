@@ -0,0 +1,398 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ *
+ * OSCAsyncPortOut sends OSC packets from its own I/O thread, so that the
+ * sending thread, such as a rendering loop, never waits for the socket.
+ * The packets are encoded on the calling thread and copied into one of
+ * a fixed number of pre-allocated slots, which the I/O thread writes to
+ * a connected DatagramChannel in order.
+ *
+ * When the network falls behind, packets that are sent with a key
+ * replace a pending packet with the same key in place, so only the
+ * latest state of a session or address goes out. When all slots are
+ * taken, the OVERFLOW_* policy of OSCPacketRing decides whether the
+ * oldest or the new packet is dropped, or whether the caller waits.
+ *
+ * With setGathering the I/O thread sends all pending packets that fit
+ * into one datagram as a single bundle, using a gathering write over
+ * the slots instead of copying them.
+ *
+ * It is used like OSCPortOut:
+
+		sender = new OSCAsyncPortOut(InetAddress.getLocalHost(), 3333);
+		sender.send(bundle);
+		sender.send(message, sessionID);
+
+ */
+
+package com.illposed.osc;
+
+import java.net.*;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.Executor;
+import com.illposed.osc.utility.OSCByteBufferEncoder;
+import com.illposed.osc.utility.OSCPacketRing;
+import com.illposed.osc.utility.OSCThreadFactory;
+
+public class OSCAsyncPortOut extends OSCPort implements OSCSender, Runnable {
+
+	/**
+	 * The default number of packets that can be pending
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	/**
+	 * The default largest packet size
+	 */
+	public static final int DEFAULT_SLOT_SIZE = 8192;
+
+	protected DatagramChannel channel;
+	protected InetAddress address;
+	protected Executor executor;
+
+	private final Object lock = new Object();
+	private final int capacity;
+	private final int slotSize;
+	private final int overflowPolicy;
+	private int gatherSize = 0;
+
+	private final ByteBuffer[] slots;
+	private final long[] keys;
+	private final boolean[] keyed;
+	// the pending slots in sending order, and the free slots
+	private final int[] pending;
+	private int pendingHead = 0;
+	private int pendingCount = 0;
+	private final int[] free;
+	private int freeCount;
+
+	// only used by the I/O thread
+	private final int[] inFlight;
+	private final ByteBuffer[] gather;
+	private final ByteBuffer[] sizes;
+	private final ByteBuffer bundleHeader;
+
+	private final OSCByteBufferEncoder encoder = new OSCByteBufferEncoder();
+	private boolean started = false;
+	private volatile boolean closed = false;
+
+	private volatile long sentCount = 0;
+	private volatile long datagramCount = 0;
+	private volatile long droppedCount = 0;
+	private volatile long coalescedCount = 0;
+	private volatile long errorCount = 0;
+
+	/**
+	 * Create an OSCAsyncPortOut that sends to address, port, dropping the oldest packet when full
+	 * @param address InetAddress
+	 * @param port int
+	 */
+	public OSCAsyncPortOut(InetAddress address, int port) throws IOException {
+		this(address, port, DEFAULT_CAPACITY, DEFAULT_SLOT_SIZE, OSCPacketRing.OVERFLOW_DROP_OLDEST);
+	}
+
+	/**
+	 * @param address         InetAddress
+	 * @param port            int
+	 * @param capacity        the number of packets that can be pending
+	 * @param slotSize        the largest packet size
+	 * @param overflowPolicy  one of the OSCPacketRing.OVERFLOW_* policies
+	 */
+	public OSCAsyncPortOut(InetAddress address, int port, int capacity, int slotSize, int overflowPolicy) throws IOException {
+		this.address = address;
+		this.port = port;
+		this.capacity = capacity;
+		this.slotSize = slotSize;
+		this.overflowPolicy = overflowPolicy;
+
+		slots = new ByteBuffer[capacity];
+		keys = new long[capacity];
+		keyed = new boolean[capacity];
+		pending = new int[capacity];
+		free = new int[capacity];
+		for (int i = 0; i < capacity; i++) {
+			slots[i] = ByteBuffer.allocate(slotSize);
+			free[i] = capacity - 1 - i;
+		}
+		freeCount = capacity;
+
+		inFlight = new int[capacity];
+		gather = new ByteBuffer[1 + 2 * capacity];
+		sizes = new ByteBuffer[capacity];
+		for (int i = 0; i < capacity; i++)
+			sizes[i] = ByteBuffer.allocate(4);
+		OSCByteBufferEncoder header = new OSCByteBufferEncoder(16);
+		header.writeString("#bundle");
+		header.writeTimeTag(OSCBundle.TIMETAG_IMMEDIATE);
+		bundleHeader = ByteBuffer.wrap(header.toByteArray());
+
+		channel = DatagramChannel.open();
+		try {
+			channel.connect(new InetSocketAddress(address, port));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Send the pending packets that fit into one datagram as a single bundle
+	 * with an immediate time tag. Packets that are bundles themselves are nested.
+	 * @param maxDatagramSize  the largest bundle, such as 1472 for Ethernet, or 0 to send each packet on its own
+	 */
+	public void setGathering(int maxDatagramSize) {
+		synchronized (lock) {
+			gatherSize = maxDatagramSize;
+		}
+	}
+
+	/**
+	 * Run the I/O loop on the given executor. Has to be set before the first send.
+	 * @param executor  the executor, or null for the default named thread
+	 */
+	public synchronized void setExecutor(Executor executor) {
+		if (started) throw new IllegalStateException("OSCAsyncPortOut is already sending");
+		this.executor = executor;
+	}
+
+	/**
+	 * @return the executor, by default an OSCThreadFactory for a daemon thread named after the port
+	 */
+	protected Executor getExecutor() {
+		if (executor == null) executor = new OSCThreadFactory("OSCAsyncPortOut-" + port, true, Thread.NORM_PRIORITY);
+		return executor;
+	}
+
+	/**
+	 * Queue a packet, it is encoded before this method returns
+	 * @param aPacket OSCPacket
+	 * @throws IOException if the packet is larger than a slot or the port is closed
+	 */
+	public synchronized void send(OSCPacket aPacket) throws IOException {
+		ByteBuffer buffer = encoder.encode(aPacket);
+		enqueue(buffer.array(), buffer.arrayOffset(), buffer.position(), false, 0);
+	}
+
+	/**
+	 * Queue a packet that replaces a pending packet with the same key,
+	 * such as a session ID or the hash of an address
+	 * @param aPacket  OSCPacket
+	 * @param key      the coalescing key
+	 * @throws IOException if the packet is larger than a slot or the port is closed
+	 */
+	public synchronized void send(OSCPacket aPacket, long key) throws IOException {
+		ByteBuffer buffer = encoder.encode(aPacket);
+		enqueue(buffer.array(), buffer.arrayOffset(), buffer.position(), true, key);
+	}
+
+	/**
+	 * Queue an already encoded packet, the bytes are copied before this method returns
+	 * @param bytes   the packet bytes
+	 * @param offset  the start of the packet
+	 * @param length  the length of the packet
+	 */
+	public synchronized void send(byte[] bytes, int offset, int length) throws IOException {
+		enqueue(bytes, offset, length, false, 0);
+	}
+
+	/**
+	 * Queue an already encoded packet that replaces a pending packet with the same key
+	 * @param bytes   the packet bytes
+	 * @param offset  the start of the packet
+	 * @param length  the length of the packet
+	 * @param key     the coalescing key
+	 */
+	public synchronized void send(byte[] bytes, int offset, int length, long key) throws IOException {
+		enqueue(bytes, offset, length, true, key);
+	}
+
+	private void enqueue(byte[] bytes, int offset, int length, boolean hasKey, long key) throws IOException {
+		if (closed) throw new ClosedChannelException();
+		if (length > slotSize)
+			throw new IOException("OSC packet of " + length + " bytes exceeds the slot size of " + slotSize);
+		if (!started) {
+			started = true;
+			getExecutor().execute(this);
+		}
+		synchronized (lock) {
+			int slot = -1;
+			if (hasKey) {
+				for (int i = 0; i < pendingCount; i++) {
+					int s = pending[(pendingHead + i) % capacity];
+					if (keyed[s] && (keys[s] == key)) {
+						slot = s;
+						coalescedCount++;
+						break;
+					}
+				}
+			}
+			if (slot < 0) {
+				while (freeCount == 0) {
+					if ((overflowPolicy == OSCPacketRing.OVERFLOW_DROP_OLDEST) && (pendingCount > 0)) {
+						free[freeCount++] = pending[pendingHead];
+						pendingHead = (pendingHead + 1) % capacity;
+						pendingCount--;
+						droppedCount++;
+					} else if (overflowPolicy == OSCPacketRing.OVERFLOW_BLOCK) {
+						try {
+							lock.wait();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new InterruptedIOException("interrupted while waiting for a free slot");
+						}
+						if (closed) throw new ClosedChannelException();
+					} else {
+						// all slots are being sent right now
+						droppedCount++;
+						return;
+					}
+				}
+				slot = free[--freeCount];
+				pending[(pendingHead + pendingCount) % capacity] = slot;
+				if (pendingCount++ == 0) lock.notifyAll();
+			}
+			ByteBuffer buffer = slots[slot];
+			buffer.clear();
+			buffer.put(bytes, offset, length);
+			buffer.flip();
+			keyed[slot] = hasKey;
+			keys[slot] = key;
+		}
+	}
+
+	/**
+	 * The I/O loop, sends the pending packets until the port is closed
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		while (true) {
+			int count = 0;
+			synchronized (lock) {
+				while (!closed && (pendingCount == 0)) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						closed = true;
+					}
+				}
+				// the pending packets are still sent after close
+				if (pendingCount == 0) break;
+				int size = bundleHeader.capacity();
+				do {
+					int slot = pending[pendingHead];
+					int length = slots[slot].remaining();
+					if ((count > 0) && ((gatherSize <= 0) || (size + 4 + length > gatherSize))) break;
+					inFlight[count++] = slot;
+					size += 4 + length;
+					pendingHead = (pendingHead + 1) % capacity;
+					pendingCount--;
+				} while (pendingCount > 0);
+			}
+			try {
+				write(count);
+			} catch (PortUnreachableException e) {
+				// nobody is listening at the moment
+				errorCount++;
+			} catch (IOException e) {
+				errorCount++;
+				if (!closed) e.printStackTrace();
+			}
+			synchronized (lock) {
+				for (int i = 0; i < count; i++)
+					free[freeCount++] = inFlight[i];
+				if (overflowPolicy == OSCPacketRing.OVERFLOW_BLOCK) lock.notifyAll();
+			}
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {}
+	}
+
+	private void write(int count) throws IOException {
+		if (count == 1) {
+			channel.write(slots[inFlight[0]]);
+		} else {
+			bundleHeader.rewind();
+			gather[0] = bundleHeader;
+			for (int i = 0; i < count; i++) {
+				ByteBuffer packet = slots[inFlight[i]];
+				sizes[i].clear();
+				sizes[i].putInt(0, packet.remaining());
+				gather[1 + 2 * i] = sizes[i];
+				gather[2 + 2 * i] = packet;
+			}
+			channel.write(gather, 0, 1 + 2 * count);
+		}
+		sentCount += count;
+		datagramCount++;
+	}
+
+	/**
+	 * @return the number of packets waiting to be sent
+	 */
+	public int getPendingCount() {
+		synchronized (lock) {
+			return pendingCount;
+		}
+	}
+
+	/**
+	 * @return the number of packets that were sent, including the packets in gathered bundles
+	 */
+	public long getSentCount() {
+		return sentCount;
+	}
+
+	/**
+	 * @return the number of datagrams that were sent
+	 */
+	public long getDatagramCount() {
+		return datagramCount;
+	}
+
+	/**
+	 * @return the number of packets that were dropped because all slots were taken
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * @return the number of packets that replaced a pending packet with the same key
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount;
+	}
+
+	/**
+	 * @return the number of writes that failed, such as while nobody was listening
+	 */
+	public long getErrorCount() {
+		return errorCount;
+	}
+
+	/**
+	 * Stop accepting packets. The I/O thread sends the pending packets
+	 * and then closes the channel, this method does not wait for it.
+	 */
+	public void close() {
+		synchronized (lock) {
+			closed = true;
+			lock.notifyAll();
+		}
+		synchronized (this) {
+			if (started) return;
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {}
+	}
+
+}
@@ -20,14 +20,19 @@ package com.illposed.osc;
 import java.math.BigInteger;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.GregorianCalendar;
 import java.util.Vector;
 
 import com.illposed.osc.utility.*;
 
 public class OSCBundle extends OSCPacket {
 
+	/**
+	 * The time tag that tells receivers to process the bundle immediately
+	 */
+	public static final long TIMETAG_IMMEDIATE = 1L;
+
 	protected Date timestamp;
+	protected long timeTag = TIMETAG_IMMEDIATE;
 	//	protected OSCPacket[] packets;
 	protected Vector<OSCPacket> packets;
 	public static final BigInteger SECONDS_FROM_1900_to_1970 =
@@ -39,7 +44,7 @@ public class OSCBundle extends OSCPacket {
 	 * You can add packets to the bundle with addPacket()
 	 */
 	public OSCBundle() {
-		this(null, GregorianCalendar.getInstance().getTime());
+		this((OSCPacket[]) null, OSCByteBufferEncoder.millisToTimeTag(System.currentTimeMillis()));
 	}
 	
 	/**
@@ -50,11 +55,19 @@ public class OSCBundle extends OSCPacket {
 		this(null, timestamp);
 	}
 
+	/**
+	 * Create an OSCBundle with a raw 64 bit NTP time tag
+	 * @param timeTag  the seconds since 1900 in the upper and the fraction in the lower 32 bits
+	 */
+	public OSCBundle(long timeTag) {
+		this((OSCPacket[]) null, timeTag);
+	}
+
 	/**
 	 * @param newPackets Array of OSCPackets to initialize this object with
 	 */
 	public OSCBundle(OSCPacket[] newPackets) {
-		this(newPackets, GregorianCalendar.getInstance().getTime());
+		this(newPackets, OSCByteBufferEncoder.millisToTimeTag(System.currentTimeMillis()));
 	}
 
 	/**
@@ -62,6 +75,15 @@ public class OSCBundle extends OSCPacket {
 	 * @param time java.lang.Time
 	 */
 	public OSCBundle(OSCPacket[] newPackets, Date newTimestamp) {
+		this(newPackets, TIMETAG_IMMEDIATE);
+		setTimestamp(newTimestamp);
+	}
+
+	/**
+	 * @param newPackets  the packets of this bundle
+	 * @param newTimeTag  a raw 64 bit NTP time tag
+	 */
+	public OSCBundle(OSCPacket[] newPackets, long newTimeTag) {
 		super();
 		if (null != newPackets) {
 			packets = new Vector<OSCPacket>(newPackets.length);
@@ -70,24 +92,45 @@ public class OSCBundle extends OSCPacket {
 			}
 		} else
 			packets = new Vector<OSCPacket>();
-		timestamp = newTimestamp;
+		timeTag = newTimeTag;
 		init();
 	}
 	
 	/**
 	 * Return the timestamp for this bundle
-	 * @return a Date
+	 * @return a Date, or null if the bundle is to be processed immediately
 	 */
 	public Date getTimestamp() {
+		checkReleased();
+		if ((timestamp == null) && (timeTag != TIMETAG_IMMEDIATE))
+			timestamp = OSCByteArrayToJavaConverter.timeTagToDate(timeTag);
 		return timestamp;
 	}
 	
 	/**
 	 * Set the timestamp for this bundle
-	 * @param timestamp
+	 * @param timestamp  a Date, or null to process the bundle immediately
 	 */
 	public void setTimestamp(Date timestamp) {
 		this.timestamp = timestamp;
+		timeTag = (timestamp == null) ? TIMETAG_IMMEDIATE : OSCByteBufferEncoder.dateToTimeTag(timestamp);
+	}
+
+	/**
+	 * @return the raw 64 bit NTP time tag of this bundle
+	 */
+	public long getTimeTag() {
+		checkReleased();
+		return timeTag;
+	}
+
+	/**
+	 * Set the time tag without creating a Date
+	 * @param timeTag  the seconds since 1900 in the upper and the fraction in the lower 32 bits
+	 */
+	public void setTimeTag(long timeTag) {
+		this.timeTag = timeTag;
+		timestamp = null;
 	}
 	
 	/**
@@ -103,20 +146,42 @@ public class OSCBundle extends OSCPacket {
 	 * @return an array of packets
 	 */
 	public OSCPacket[] getPackets() {
+		checkReleased();
 		OSCPacket[] packetArray = new OSCPacket[packets.size()];
 		packets.toArray(packetArray);
 		return packetArray;
 	}
 
+	/**
+	 * Clear the timestamp and packets so this bundle can be reused
+	 */
+	public void reset() {
+		super.reset();
+		timestamp = null;
+		timeTag = TIMETAG_IMMEDIATE;
+		packets.clear();
+	}
+
 	protected void computeTimeTagByteArray(OSCJavaToByteArrayConverter stream) {
-		long millisecs = timestamp.getTime();
-		long secsSince1970 = (long) (millisecs / 1000);
-		long secs = secsSince1970 + SECONDS_FROM_1900_to_1970.longValue();
-		long picosecs = (long) (millisecs - (secsSince1970 * 1000)) * 1000;
-		
-		stream.write((int) secs);
-		stream.write((int) picosecs);
+		stream.write((int) (timeTag >>> 32));
+		stream.write((int) timeTag);
+	}
 
+	/**
+	 * Write the bundle header and all elements in one pass. The size of each
+	 * element is written as a placeholder and filled in once the element is
+	 * written, so nested bundles don't need their own buffers.
+	 * @param encoder  the encoder, positioned where the bundle starts
+	 */
+	public void encode(OSCByteBufferEncoder encoder) {
+		encoder.writeString("#bundle");
+		encoder.writeTimeTag(timeTag);
+		for (int i = 0; i < packets.size(); i++) {
+			int sizePosition = encoder.position();
+			encoder.writeInt(0);
+			packets.get(i).encode(encoder);
+			encoder.writeInt(sizePosition, encoder.position() - sizePosition - 4);
+		}
 	}
 
 	/**
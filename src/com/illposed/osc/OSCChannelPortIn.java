@@ -0,0 +1,243 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ *
+ * OSCChannelPortIn is an alternative OSCPortIn receive engine that is
+ * built on a non-blocking DatagramChannel and a Selector.
+ *
+ * Every time the selector wakes up, all datagrams that are queued on the
+ * socket are drained into a single reusable direct ByteBuffer, and then
+ * handed to the decoder and dispatcher as one batch. This saves a wakeup
+ * and a blocking receive call per packet for high frequency senders.
+ *
+ * It is used exactly like OSCPortIn:
+
+		receiver = new OSCChannelPortIn(3333);
+		receiver.addListener("/tuio/2Dcur", listener);
+		receiver.startListening();
+
+ */
+
+package com.illposed.osc;
+
+import java.net.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+public class OSCChannelPortIn extends OSCPortIn {
+
+	/**
+	 * The maximum UDP packet size, a batch is closed when less space is left
+	 */
+	public static final int MAX_PACKET_SIZE = 65536;
+
+	/**
+	 * The default size of the batch receive buffer
+	 */
+	public static final int DEFAULT_BATCH_CAPACITY = 4 * MAX_PACKET_SIZE;
+
+	/**
+	 * The default maximum number of datagrams per batch
+	 */
+	public static final int DEFAULT_BATCH_PACKETS = 64;
+
+	protected DatagramChannel channel;
+	protected Selector selector;
+
+	// state for the current batch
+	protected ByteBuffer batchBuffer;
+	protected int[] packetOffsets;
+	protected int[] packetLengths;
+	protected byte[] packetBytes = new byte[MAX_PACKET_SIZE];
+
+	/**
+	 * Create an OSCChannelPortIn that listens on port
+	 * @param port
+	 * @throws SocketException
+	 */
+	public OSCChannelPortIn(int port) throws SocketException {
+		this(port, DEFAULT_BATCH_CAPACITY, DEFAULT_BATCH_PACKETS);
+	}
+
+	/**
+	 * Create an OSCChannelPortIn that listens on port
+	 * @param port
+	 * @param batchCapacity  the size of the direct receive buffer in bytes
+	 * @param batchPackets   the maximum number of datagrams drained per wakeup
+	 * @throws SocketException
+	 */
+	public OSCChannelPortIn(int port, int batchCapacity, int batchPackets) throws SocketException {
+		this(port, batchCapacity, batchPackets, false);
+	}
+
+	/**
+	 * Create an OSCChannelPortIn that listens on port
+	 * @param port
+	 * @param batchCapacity  the size of the direct receive buffer in bytes
+	 * @param batchPackets   the maximum number of datagrams drained per wakeup
+	 * @param reusePort      bind with SO_REUSEPORT, so several ports can share the port number
+	 * @throws SocketException
+	 */
+	protected OSCChannelPortIn(int port, int batchCapacity, int batchPackets, boolean reusePort) throws SocketException {
+		this(port, batchCapacity, batchPackets, reusePort, null, null);
+	}
+
+	/**
+	 * Create an OSCChannelPortIn that listens to a multicast group on port
+	 * @param port
+	 * @param group             the multicast group address
+	 * @param networkInterface  the interface to join the group on
+	 * @throws SocketException
+	 */
+	public OSCChannelPortIn(int port, InetAddress group, NetworkInterface networkInterface) throws SocketException {
+		this(port, DEFAULT_BATCH_CAPACITY, DEFAULT_BATCH_PACKETS, false, group, networkInterface);
+	}
+
+	/**
+	 * Create an OSCChannelPortIn that listens on port
+	 * @param port
+	 * @param batchCapacity     the size of the direct receive buffer in bytes
+	 * @param batchPackets      the maximum number of datagrams drained per wakeup
+	 * @param reusePort         bind with SO_REUSEPORT, so several ports can share the port number
+	 * @param group             a multicast group to join, or null
+	 * @param networkInterface  the interface to join the group on
+	 * @throws SocketException
+	 */
+	protected OSCChannelPortIn(int port, int batchCapacity, int batchPackets, boolean reusePort,
+			InetAddress group, NetworkInterface networkInterface) throws SocketException {
+		super();
+		if (batchCapacity < MAX_PACKET_SIZE) batchCapacity = MAX_PACKET_SIZE;
+		if (batchPackets < 1) batchPackets = 1;
+		batchBuffer = ByteBuffer.allocateDirect(batchCapacity);
+		packetOffsets = new int[batchPackets];
+		packetLengths = new int[batchPackets];
+		try {
+			if (group != null) {
+				if (!group.isMulticastAddress())
+					throw new IOException(group + " is not a multicast address");
+				if (networkInterface == null)
+					throw new IOException("joining a multicast group requires a network interface");
+				channel = DatagramChannel.open((group instanceof Inet6Address) ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+				// every local receiver of the group binds the same port
+				channel.setOption(StandardSocketOptions.SO_REUSEADDR, Boolean.TRUE);
+			} else channel = DatagramChannel.open();
+			if (reusePort) {
+				SocketOption<Boolean> option = reusePortOption();
+				if ((option == null) || !channel.supportedOptions().contains(option))
+					throw new IOException("SO_REUSEPORT is not supported");
+				channel.setOption(option, Boolean.TRUE);
+			}
+			channel.bind(new InetSocketAddress(port));
+			if (group != null) channel.join(group, networkInterface);
+			channel.configureBlocking(false);
+			selector = Selector.open();
+			channel.register(selector, SelectionKey.OP_READ);
+		} catch (IOException e) {
+			close();
+			throw new SocketException("could not open channel on port " + port + ": " + e.getMessage());
+		}
+		socket = channel.socket();
+		this.port = port;
+	}
+
+	/**
+	 * SO_REUSEPORT is only available from Java 9 on, so it is looked up at runtime
+	 * @return the SO_REUSEPORT socket option or null
+	 */
+	@SuppressWarnings("unchecked")
+	static SocketOption<Boolean> reusePortOption() {
+		try {
+			return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		while (isListening) {
+			try {
+				if (selector.select() == 0) continue;
+				selector.selectedKeys().clear();
+				int count = receiveBatch();
+				if (count > 0) dispatchBatch(count);
+			} catch (ClosedSelectorException e) {
+				break;
+			} catch (ClosedChannelException e) {
+				break;
+			} catch (IOException e) {
+				if (isListening) e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Drain all queued datagrams into the batch buffer
+	 * @return the number of datagrams received
+	 */
+	protected int receiveBatch() throws IOException {
+		batchBuffer.clear();
+		int count = 0;
+		while ((count < packetOffsets.length) && (batchBuffer.remaining() >= MAX_PACKET_SIZE)) {
+			int offset = batchBuffer.position();
+			if (channel.receive(batchBuffer) == null) break;
+			packetOffsets[count] = offset;
+			packetLengths[count] = batchBuffer.position() - offset;
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Decode and dispatch the datagrams of the current batch in arrival order
+	 * @param count the number of datagrams in the batch
+	 */
+	protected void dispatchBatch(int count) {
+		for (int i = 0; i < count; i++) {
+			int length = packetLengths[i];
+			if (length == 0) continue;
+			batchBuffer.position(packetOffsets[i]);
+			batchBuffer.get(packetBytes, 0, length);
+			try {
+				handlePacket(packetBytes, 0, length);
+			} catch (RuntimeException e) {
+				// a malformed packet must not end the batch
+				if (isListening) e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Stop listening for incoming OSCPackets
+	 */
+	public void stopListening() {
+		isListening = false;
+		if (ring != null) ring.stop();
+		if (selector != null) selector.wakeup();
+	}
+
+	/**
+	 * Close the channel and free-up resources. It's recommended that clients call
+	 * this when they are done with the port.
+	 */
+	public void close() {
+		isListening = false;
+		if (ring != null) ring.stop();
+		try {
+			if (selector != null) selector.close();
+		} catch (IOException e) {}
+		try {
+			if (channel != null) channel.close();
+		} catch (IOException e) {}
+	}
+
+}
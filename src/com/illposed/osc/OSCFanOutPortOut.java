@@ -0,0 +1,245 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ *
+ * OSCFanOutPortOut sends every packet to any number of targets, such as
+ * OSCPortOut for unicast or multicast destinations, OSCStreamPortOut or
+ * any other OSCSender. Each packet is encoded only once, then copied into
+ * a bounded OSCPacketRing per target, and a thread per target sends it on.
+ * A slow or unreachable target therefore only loses its own packets and
+ * doesn't hold up the producer or the other targets.
+ *
+ * A target can be restricted to packets whose first message address
+ * starts with a prefix, which for TUIO bundles is the profile:
+
+		fanOut = new OSCFanOutPortOut();
+		fanOut.addTarget(new OSCPortOut(wall1, 3333));
+		fanOut.addTarget(new OSCPortOut(wall2, 3333), "/tuio/2Dcur");
+		server = new TuioServer(fanOut);
+
+ */
+
+package com.illposed.osc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import com.illposed.osc.utility.OSCByteBufferEncoder;
+import com.illposed.osc.utility.OSCPacketRing;
+import com.illposed.osc.utility.OSCThreadFactory;
+
+public class OSCFanOutPortOut implements OSCSender {
+
+	/**
+	 * A registered target with its queue and statistics
+	 */
+	public static class Target implements OSCPacketListener {
+
+		private final OSCSender sender;
+		private final byte[] prefix;
+		private final OSCPacketRing ring;
+		private volatile long filteredCount = 0;
+		private volatile long errorCount = 0;
+
+		private Target(OSCSender sender, String addressPrefix, OSCPacketRing ring) {
+			this.sender = sender;
+			this.ring = ring;
+			if (addressPrefix == null) {
+				prefix = null;
+			} else {
+				prefix = new byte[addressPrefix.length()];
+				for (int i = 0; i < prefix.length; i++)
+					prefix[i] = (byte) addressPrefix.charAt(i);
+			}
+		}
+
+		/**
+		 * Send a queued packet, called from the thread of this target
+		 * @see com.illposed.osc.OSCPacketListener#acceptPacket(byte[], int, int)
+		 */
+		public void acceptPacket(byte[] bytes, int offset, int length) {
+			try {
+				sender.send(bytes, offset, length);
+			} catch (IOException e) {
+				errorCount++;
+			}
+		}
+
+		private boolean accepts(byte[] bytes, int offset, int length) {
+			if (prefix == null) return true;
+			int position = offset;
+			int end = offset + length;
+			// the address of the first message, which may be nested in bundles
+			while (OSCMessageView.isBundle(bytes, position, end - position)) {
+				if (position + 20 > end) return true;
+				position += 20;
+			}
+			if (position + prefix.length > end) return false;
+			for (int i = 0; i < prefix.length; i++) {
+				if (bytes[position + i] != prefix[i]) return false;
+			}
+			return true;
+		}
+
+		/**
+		 * @return the transport of this target
+		 */
+		public OSCSender getSender() {
+			return sender;
+		}
+
+		/**
+		 * @return the number of packets that were sent or failed to send
+		 */
+		public long getSentCount() {
+			return ring.getProcessedCount();
+		}
+
+		/**
+		 * @return the number of packets that were dropped because the queue was full or the packet too large
+		 */
+		public long getDroppedCount() {
+			return ring.getDroppedOldestCount() + ring.getDroppedNewestCount() + ring.getOversizedCount();
+		}
+
+		/**
+		 * @return the number of packets that didn't match the address prefix
+		 */
+		public long getFilteredCount() {
+			return filteredCount;
+		}
+
+		/**
+		 * @return the number of packets the transport failed to send
+		 */
+		public long getErrorCount() {
+			return errorCount;
+		}
+
+		/**
+		 * @return the number of packets waiting to be sent
+		 */
+		public int getQueueSize() {
+			return ring.size();
+		}
+
+	}
+
+	private final int capacity;
+	private final int slotSize;
+	private final int overflowPolicy;
+	private volatile Target[] targets = new Target[0];
+	private int targetCount = 0;
+	private final OSCByteBufferEncoder encoder = new OSCByteBufferEncoder();
+
+	/**
+	 * Create a fan-out with the default queue size per target,
+	 * that drops the oldest packets of a target that falls behind.
+	 * Packets larger than OSCPacketRing.MAX_PACKET_SIZE are dropped.
+	 */
+	public OSCFanOutPortOut() {
+		this(OSCPacketRing.DEFAULT_CAPACITY, OSCPacketRing.DEFAULT_SLOT_SIZE, OSCPacketRing.OVERFLOW_DROP_OLDEST);
+	}
+
+	/**
+	 * @param capacity        the number of packets each target can queue
+	 * @param slotSize        the initial slot size, slots grow for packets up to OSCPacketRing.MAX_PACKET_SIZE
+	 * @param overflowPolicy  OSCPacketRing.OVERFLOW_DROP_OLDEST or OVERFLOW_DROP_NEWEST
+	 */
+	public OSCFanOutPortOut(int capacity, int slotSize, int overflowPolicy) {
+		if (overflowPolicy == OSCPacketRing.OVERFLOW_BLOCK)
+			throw new IllegalArgumentException("a blocking target would hold up all other targets");
+		this.capacity = capacity;
+		this.slotSize = slotSize;
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Add a target that receives all packets
+	 * @param sender  the transport of the target
+	 * @return the target, for its statistics and for removeTarget
+	 */
+	public Target addTarget(OSCSender sender) {
+		return addTarget(sender, null);
+	}
+
+	/**
+	 * Add a target that only receives the packets whose first message address starts with the prefix
+	 * @param sender         the transport of the target
+	 * @param addressPrefix  the address prefix such as a TUIO profile, or null for all packets
+	 * @return the target, for its statistics and for removeTarget
+	 */
+	public synchronized Target addTarget(OSCSender sender, String addressPrefix) {
+		OSCPacketRing ring = new OSCPacketRing(capacity, slotSize, OSCPacketRing.WAIT_BLOCKING, overflowPolicy);
+		Target target = new Target(sender, addressPrefix, ring);
+		ring.start(target, new OSCThreadFactory("OSCFanOutPortOut-" + (++targetCount), true, Thread.NORM_PRIORITY));
+		Target[] grown = new Target[targets.length + 1];
+		System.arraycopy(targets, 0, grown, 0, targets.length);
+		grown[targets.length] = target;
+		targets = grown;
+		return target;
+	}
+
+	/**
+	 * Stop sending to a target, the packets still queued for it are discarded.
+	 * The transport of the target is not closed.
+	 * @param target  the target returned by addTarget
+	 */
+	public synchronized void removeTarget(Target target) {
+		for (int i = 0; i < targets.length; i++) {
+			if (targets[i] != target) continue;
+			Target[] shrunk = new Target[targets.length - 1];
+			System.arraycopy(targets, 0, shrunk, 0, i);
+			System.arraycopy(targets, i + 1, shrunk, i, targets.length - i - 1);
+			targets = shrunk;
+			target.ring.stop();
+			return;
+		}
+	}
+
+	/**
+	 * @return the registered targets
+	 */
+	public Target[] getTargets() {
+		return targets.clone();
+	}
+
+	/**
+	 * Encode the packet once and queue it for all targets
+	 * @param aPacket OSCPacket
+	 */
+	public synchronized void send(OSCPacket aPacket) throws IOException {
+		ByteBuffer buffer = encoder.encode(aPacket);
+		send(buffer.array(), buffer.arrayOffset(), buffer.position());
+	}
+
+	/**
+	 * Queue an already encoded packet for all targets, the bytes are copied before this method returns
+	 * @param bytes   the packet bytes
+	 * @param offset  the start of the packet
+	 * @param length  the length of the packet
+	 */
+	public synchronized void send(byte[] bytes, int offset, int length) throws IOException {
+		Target[] current = targets;
+		long now = System.nanoTime();
+		for (int i = 0; i < current.length; i++) {
+			Target target = current[i];
+			if (target.accepts(bytes, offset, length)) target.ring.offer(bytes, offset, length, now);
+			else target.filteredCount++;
+		}
+	}
+
+	/**
+	 * Stop all targets, discarding the packets still queued, and close their transports
+	 */
+	public synchronized void close() {
+		Target[] current = targets;
+		targets = new Target[0];
+		for (int i = 0; i < current.length; i++) {
+			current[i].ring.stop();
+			current[i].sender.close();
+		}
+	}
+
+}
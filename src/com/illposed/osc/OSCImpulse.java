@@ -0,0 +1,27 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ * OSCImpulse represents the OSC 1.1 impulse argument (type tag I),
+ * which carries no data and is used to trigger an event.
+ */
+
+package com.illposed.osc;
+
+public final class OSCImpulse {
+
+	/**
+	 * The only impulse instance
+	 */
+	public static final OSCImpulse INSTANCE = new OSCImpulse();
+
+	private OSCImpulse() {
+		super();
+	}
+
+	public String toString() {
+		return "impulse";
+	}
+
+}
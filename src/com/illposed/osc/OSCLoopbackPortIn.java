@@ -0,0 +1,77 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ *
+ * OSCLoopbackPortIn receives packets from OSCLoopbackPortOut senders in
+ * the same JVM, without any socket. The sender's buffer is passed by
+ * reference straight into the decode and dispatch path, so listeners
+ * are called on the sending thread and no bytes are copied at all.
+ * With a packet ring the packets are copied into the ring instead and
+ * dispatched on the processing thread.
+ *
+ * This connects embedded simulators to a TuioClient, and lets benchmarks
+ * measure the decoding without any kernel overhead:
+
+		OSCLoopbackPortIn receiver = new OSCLoopbackPortIn();
+		TuioClient client = new TuioClient(receiver);
+		client.connect();
+		OSCLoopbackPortOut sender = new OSCLoopbackPortOut(receiver);
+		sender.send(bundle);
+
+ */
+
+package com.illposed.osc;
+
+public class OSCLoopbackPortIn extends OSCPortIn {
+
+	/**
+	 * Create an OSCLoopbackPortIn, packets are only delivered while it is listening
+	 */
+	public OSCLoopbackPortIn() {
+		super();
+	}
+
+	/**
+	 * Packets arrive through deliver(), so there is no receive loop
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+	}
+
+	/**
+	 * Start delivering packets to the listeners
+	 */
+	public void startListening() {
+		isListening = true;
+		if (ring != null) ring.start(dispatcher, getExecutor());
+	}
+
+	/**
+	 * Deliver a packet from a sender, the bytes are not retained after this call
+	 * @param bytes   the packet bytes
+	 * @param offset  the start of the packet
+	 * @param length  the length of the packet
+	 * @return false if the port is not listening
+	 */
+	public boolean deliver(byte[] bytes, int offset, int length) {
+		if (!isListening) return false;
+		if (ring != null) {
+			// the ring takes packets from a single thread only
+			synchronized (this) {
+				handlePacket(bytes, offset, length);
+			}
+		} else handlePacket(bytes, offset, length);
+		return true;
+	}
+
+	/**
+	 * Stop delivering packets
+	 */
+	public void close() {
+		isListening = false;
+		if (ring != null) ring.stop();
+	}
+
+}
@@ -0,0 +1,72 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ *
+ * OSCLoopbackPortOut sends packets to an OSCLoopbackPortIn in the same JVM
+ * by reference, see OSCLoopbackPortIn. Packets sent while the receiver is
+ * not listening are discarded, just like datagrams to a closed port.
+ */
+
+package com.illposed.osc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import com.illposed.osc.utility.OSCByteBufferEncoder;
+
+public class OSCLoopbackPortOut implements OSCSender {
+
+	protected OSCLoopbackPortIn receiver;
+	protected OSCByteBufferEncoder encoder = new OSCByteBufferEncoder();
+	private boolean delivering = false;
+
+	/**
+	 * Create an OSCLoopbackPortOut that delivers to receiver
+	 * @param receiver  the port to deliver to
+	 */
+	public OSCLoopbackPortOut(OSCLoopbackPortIn receiver) {
+		this.receiver = receiver;
+	}
+
+	/**
+	 * @param aPacket OSCPacket
+	 */
+	public synchronized void send(OSCPacket aPacket) throws IOException {
+		if (delivering) {
+			// a listener replies through this sender while the encoder buffer is still being dispatched
+			byte[] byteArray = aPacket.getByteArray();
+			receiver.deliver(byteArray, 0, byteArray.length);
+			return;
+		}
+		ByteBuffer buffer = encoder.encode(aPacket);
+		delivering = true;
+		try {
+			receiver.deliver(buffer.array(), buffer.arrayOffset(), buffer.position());
+		} finally {
+			delivering = false;
+		}
+	}
+
+	/**
+	 * Deliver an encoded packet, the bytes are not retained after this call
+	 * @see com.illposed.osc.OSCSender#send(byte[], int, int)
+	 */
+	public void send(byte[] bytes, int offset, int length) throws IOException {
+		receiver.deliver(bytes, offset, length);
+	}
+
+	/**
+	 * @return the port this sender delivers to
+	 */
+	public OSCLoopbackPortIn getReceiver() {
+		return receiver;
+	}
+
+	/**
+	 * The receiver stays open for other senders
+	 */
+	public void close() {
+	}
+
+}
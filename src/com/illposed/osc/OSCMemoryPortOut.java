@@ -0,0 +1,154 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ *
+ * OSCMemoryPortOut records packets into a growing byte array instead of
+ * sending them, framed with a length prefix like an OSC 1.0 stream, so
+ * the recording can also be written to a file and read back with an
+ * OSCStreamFramer. A recorded stream is replayed to any OSCSender, which
+ * lets benchmarks generate their input once and then measure only the
+ * receiving side:
+
+		OSCMemoryPortOut recorder = new OSCMemoryPortOut();
+		... send packets to the recorder ...
+		OSCLoopbackPortIn receiver = new OSCLoopbackPortIn();
+		TuioClient client = new TuioClient(receiver);
+		client.connect();
+		recorder.replay(new OSCLoopbackPortOut(receiver));
+
+ */
+
+package com.illposed.osc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import com.illposed.osc.utility.OSCByteBufferEncoder;
+import com.illposed.osc.utility.OSCStreamFramer;
+
+public class OSCMemoryPortOut implements OSCSender {
+
+	protected ByteBuffer buffer;
+	protected int packetCount = 0;
+	private final OSCByteBufferEncoder encoder = new OSCByteBufferEncoder();
+
+	/**
+	 * Create an OSCMemoryPortOut with an initial capacity of 64 kB
+	 */
+	public OSCMemoryPortOut() {
+		this(65536);
+	}
+
+	/**
+	 * @param initialCapacity  the initial size of the recording buffer, it grows as needed
+	 */
+	public OSCMemoryPortOut(int initialCapacity) {
+		buffer = ByteBuffer.allocate(initialCapacity);
+	}
+
+	/**
+	 * @param aPacket OSCPacket
+	 */
+	public synchronized void send(OSCPacket aPacket) throws IOException {
+		ByteBuffer encoded = encoder.encode(aPacket);
+		send(encoded.array(), encoded.arrayOffset(), encoded.position());
+	}
+
+	/**
+	 * Append an encoded packet to the recording
+	 * @see com.illposed.osc.OSCSender#send(byte[], int, int)
+	 */
+	public synchronized void send(byte[] bytes, int offset, int length) throws IOException {
+		int frameLength = OSCStreamFramer.getMaxFrameLength(OSCStreamFramer.LENGTH_PREFIX, length);
+		if (buffer.remaining() < frameLength) {
+			ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + frameLength));
+			buffer.flip();
+			grown.put(buffer);
+			buffer = grown;
+		}
+		OSCStreamFramer.encode(OSCStreamFramer.LENGTH_PREFIX, bytes, offset, length, buffer);
+		packetCount++;
+	}
+
+	/**
+	 * @return the number of recorded packets
+	 */
+	public synchronized int getPacketCount() {
+		return packetCount;
+	}
+
+	/**
+	 * @return the size of the recording in bytes, including the length prefixes
+	 */
+	public synchronized int size() {
+		return buffer.position();
+	}
+
+	/**
+	 * @return the recording buffer, valid up to size() until the next packet is recorded
+	 */
+	public synchronized byte[] getBuffer() {
+		return buffer.array();
+	}
+
+	/**
+	 * @return a copy of the recording
+	 */
+	public synchronized byte[] toByteArray() {
+		byte[] bytes = new byte[buffer.position()];
+		System.arraycopy(buffer.array(), 0, bytes, 0, bytes.length);
+		return bytes;
+	}
+
+	/**
+	 * Discard the recording, the buffer is kept for the next one
+	 */
+	public synchronized void reset() {
+		buffer.clear();
+		packetCount = 0;
+	}
+
+	/**
+	 * Send all recorded packets in order
+	 * @param sender  the transport to send the packets to
+	 * @return the number of packets sent
+	 */
+	public synchronized int replay(OSCSender sender) throws IOException {
+		return replay(buffer.array(), 0, buffer.position(), sender);
+	}
+
+	/**
+	 * Send all packets of a length prefixed stream in order, such as a recording read from a file
+	 * @param bytes   the stream bytes
+	 * @param offset  the start of the stream
+	 * @param length  the length of the stream
+	 * @param sender  the transport to send the packets to
+	 * @return the number of packets sent
+	 * @throws IOException if the stream is truncated or the transport failed
+	 */
+	public static int replay(byte[] bytes, int offset, int length, OSCSender sender) throws IOException {
+		int position = offset;
+		int end = offset + length;
+		int count = 0;
+		while (position < end) {
+			if (position + 4 > end) throw new IOException("truncated length prefix at " + (position - offset));
+			int packetLength = ((bytes[position] & 0xFF) << 24) | ((bytes[position + 1] & 0xFF) << 16)
+				| ((bytes[position + 2] & 0xFF) << 8) | (bytes[position + 3] & 0xFF);
+			position += 4;
+			if ((packetLength < 0) || (position + packetLength > end))
+				throw new IOException("truncated packet at " + (position - offset - 4));
+			sender.send(bytes, position, packetLength);
+			position += packetLength;
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * The recording stays available after close
+	 */
+	public void close() {
+	}
+
+}
@@ -64,6 +64,7 @@ public class OSCMessage extends OSCPacket {
 	 * @return the address of this OSC Message
 	 */
 	public String getAddress() {
+		checkReleased();
 		return address;
 	}
 	
@@ -80,9 +81,19 @@ public class OSCMessage extends OSCPacket {
 	}
 	
 	public Object[] getArguments() {
+		checkReleased();
 		return arguments.toArray();
 	}
 
+	/**
+	 * Clear the address and arguments so this message can be reused
+	 */
+	public void reset() {
+		super.reset();
+		address = null;
+		arguments.clear();
+	}
+
 	/**
 	 * @param stream OscPacketByteArrayConverter
 	 */
@@ -106,6 +117,16 @@ public class OSCMessage extends OSCPacket {
 		}
 	}
 
+	/**
+	 * Write the address, the type tags and the arguments
+	 * @param encoder  the encoder, positioned where the message starts
+	 */
+	public void encode(OSCByteBufferEncoder encoder) {
+		encoder.writeString(address);
+		encoder.writeTypeTags(arguments);
+		encoder.writeArguments(arguments);
+	}
+
 	/**
 	 * @param stream OscPacketByteArrayConverter
 	 */
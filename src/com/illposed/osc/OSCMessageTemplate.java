@@ -0,0 +1,201 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ * OSCMessageTemplate is a message with a fixed address and type tag
+ * string, which are padded and encoded only once when the template is
+ * created. The arguments are kept in typed slots and are set in place,
+ * so encoding a message copies the prefix and writes the slot values
+ * without boxing, for example for TUIO cursor set messages:
+
+		OSCMessageTemplate set = new OSCMessageTemplate("/tuio/2Dcur", ",sifffff");
+		set.setString(0, "set");
+		...
+		set.setInt(1, sessionID);
+		set.setFloat(2, x);
+		set.setFloat(3, y);
+		bundle.addPacket(set);
+
+ * A template can be encoded again after its slots were changed, but a
+ * bundle holds the template itself and not a copy of its values.
+ */
+
+package com.illposed.osc;
+
+import com.illposed.osc.utility.*;
+
+public class OSCMessageTemplate extends OSCPacket {
+
+	private static final byte[] EMPTY_BLOB = new byte[0];
+
+	protected String address;
+	protected String typeTags;
+	protected char[] types;
+	protected byte[] prefix;
+	protected long[] values;
+	protected Object[] objects;
+
+	/**
+	 * @param address   the OSC address
+	 * @param typeTags  the type tags with or without the leading comma,
+	 *                  supported are i h f d c t s S b T F N I
+	 * @throws IllegalArgumentException if a type tag is not supported
+	 */
+	public OSCMessageTemplate(String address, String typeTags) {
+		super();
+		if (!typeTags.startsWith(",")) typeTags = "," + typeTags;
+		this.address = address;
+		this.typeTags = typeTags;
+		types = typeTags.substring(1).toCharArray();
+		for (int i = 0; i < types.length; i++) {
+			if ("ihfdctsSbTFNI".indexOf(types[i]) < 0)
+				throw new IllegalArgumentException("unsupported OSC type tag " + types[i] + " in " + typeTags);
+		}
+		values = new long[types.length];
+		objects = new Object[types.length];
+
+		OSCByteBufferEncoder encoder = new OSCByteBufferEncoder(address.length() + typeTags.length() + 8);
+		encoder.writeString(address);
+		encoder.writeString(typeTags);
+		prefix = encoder.toByteArray();
+	}
+
+	/**
+	 * @return the OSC address
+	 */
+	public String getAddress() {
+		return address;
+	}
+
+	/**
+	 * @return the type tags including the leading comma
+	 */
+	public String getTypeTags() {
+		return typeTags;
+	}
+
+	/**
+	 * @return the number of argument slots
+	 */
+	public int getArgumentCount() {
+		return types.length;
+	}
+
+	private void checkType(int index, char type) {
+		if (types[index] != type)
+			throw new IllegalArgumentException("argument " + index + " of " + address + " is of type " + types[index] + " not " + type);
+	}
+
+	/**
+	 * @param index  the argument slot of type i
+	 * @param value  the 32 bit integer
+	 */
+	public void setInt(int index, int value) {
+		checkType(index, 'i');
+		values[index] = value;
+	}
+
+	/**
+	 * @param index  the argument slot of type h
+	 * @param value  the 64 bit integer
+	 */
+	public void setLong(int index, long value) {
+		checkType(index, 'h');
+		values[index] = value;
+	}
+
+	/**
+	 * @param index  the argument slot of type f
+	 * @param value  the 32 bit float
+	 */
+	public void setFloat(int index, float value) {
+		checkType(index, 'f');
+		values[index] = Float.floatToRawIntBits(value);
+	}
+
+	/**
+	 * @param index  the argument slot of type d
+	 * @param value  the 64 bit double
+	 */
+	public void setDouble(int index, double value) {
+		checkType(index, 'd');
+		values[index] = Double.doubleToRawLongBits(value);
+	}
+
+	/**
+	 * @param index  the argument slot of type c
+	 * @param value  the character
+	 */
+	public void setChar(int index, char value) {
+		checkType(index, 'c');
+		values[index] = value;
+	}
+
+	/**
+	 * @param index    the argument slot of type t
+	 * @param timeTag  the seconds since 1900 in the upper and the fraction in the lower 32 bits
+	 */
+	public void setTimeTag(int index, long timeTag) {
+		checkType(index, 't');
+		values[index] = timeTag;
+	}
+
+	/**
+	 * @param index  the argument slot of type s or S
+	 * @param value  the ASCII string
+	 */
+	public void setString(int index, String value) {
+		if (types[index] != 'S') checkType(index, 's');
+		objects[index] = value;
+	}
+
+	/**
+	 * @param index  the argument slot of type b
+	 * @param value  the blob bytes, which are not copied
+	 */
+	public void setBlob(int index, byte[] value) {
+		checkType(index, 'b');
+		objects[index] = value;
+	}
+
+	/**
+	 * Write the cached address and type tags followed by the slot values
+	 * @param encoder  the encoder, positioned where the message starts
+	 */
+	public void encode(OSCByteBufferEncoder encoder) {
+		encoder.writeBytes(prefix, 0, prefix.length);
+		for (int i = 0; i < types.length; i++) {
+			switch (types[i]) {
+				case 'i' :
+				case 'c' :
+				case 'f' :
+					// floats are kept as their bits
+					encoder.writeInt((int) values[i]);
+					break;
+				case 'h' :
+				case 't' :
+				case 'd' :
+					encoder.writeLong(values[i]);
+					break;
+				case 's' :
+				case 'S' :
+					encoder.writeString(objects[i] == null ? "" : (String) objects[i]);
+					break;
+				case 'b' :
+					byte[] blob = (objects[i] == null) ? EMPTY_BLOB : (byte[]) objects[i];
+					encoder.writeBlob(blob, 0, blob.length);
+					break;
+				// T, F, N and I have no argument data
+			}
+		}
+	}
+
+	/**
+	 * @param stream OscPacketByteArrayConverter
+	 */
+	protected void computeByteArray(OSCJavaToByteArrayConverter stream) {
+		computeByteArray();
+	}
+
+}
@@ -0,0 +1,458 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ *
+ * OSCMessageView is a reusable flyweight reader for a single encoded
+ * OSC message. It walks the address, the type tags and the arguments
+ * in place over a byte array or ByteBuffer and provides primitive
+ * accessors for the arguments, so reading a message allocates nothing.
+ *
+ * Arguments are indexed by their position in the type tag string,
+ * so the array brackets [ and ] occupy an index without any data.
+ * A view is only valid until it is wrapped around the next message,
+ * listeners that need to keep the content have to copy it.
+ */
+
+package com.illposed.osc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class OSCMessageView {
+
+	/**
+	 * The OSC time tag that stands for "execute immediately"
+	 */
+	public static final long TIMETAG_IMMEDIATE = 1L;
+
+	private static final byte[] BUNDLE_HEADER = { '#', 'b', 'u', 'n', 'd', 'l', 'e', 0 };
+
+	protected ByteBuffer buffer;
+	protected byte[] bufferArray;
+	protected int offset;
+	protected int end;
+	protected int addressEnd;
+	protected int typesStart;
+	protected int typeCount;
+	protected int[] argumentOffsets = new int[16];
+
+	/**
+	 * Wrap this view around the message in the provided byte array
+	 * @param bytes   the byte array containing the message
+	 * @param offset  the start of the message
+	 * @param length  the length of the message
+	 * @return this view
+	 * @throws IllegalArgumentException if the message is malformed
+	 */
+	public OSCMessageView wrap(byte[] bytes, int offset, int length) {
+		// only wrap the array once as long as the same receive buffer is used
+		if (bytes != bufferArray) {
+			buffer = ByteBuffer.wrap(bytes);
+			bufferArray = bytes;
+		}
+		return parse(offset, length);
+	}
+
+	/**
+	 * Wrap this view around the message in the provided buffer,
+	 * the offset is an absolute index and the buffer position is ignored
+	 * @param buf     the (heap or direct) buffer containing the message
+	 * @param offset  the start of the message
+	 * @param length  the length of the message
+	 * @return this view
+	 * @throws IllegalArgumentException if the message is malformed
+	 */
+	public OSCMessageView wrap(ByteBuffer buf, int offset, int length) {
+		if (buf != buffer) {
+			buffer = (buf.order() == ByteOrder.BIG_ENDIAN) ? buf : buf.duplicate().order(ByteOrder.BIG_ENDIAN);
+			bufferArray = null;
+		}
+		return parse(offset, length);
+	}
+
+	private OSCMessageView parse(int offset, int length) {
+		if ((offset < 0) || (length < 4) || (offset + length > buffer.limit()))
+			throw new IllegalArgumentException("malformed OSC message");
+		this.offset = offset;
+		this.end = offset + length;
+		addressEnd = endOfString(offset);
+		typeCount = 0;
+		int position = align(addressEnd + 1);
+		if ((position >= end) || (buffer.get(position) != ',')) {
+			// a message without type tags carries no arguments
+			typesStart = position;
+			return this;
+		}
+		typesStart = position + 1;
+		int typesEnd = endOfString(typesStart);
+		typeCount = typesEnd - typesStart;
+		if (typeCount > argumentOffsets.length)
+			argumentOffsets = new int[Math.max(typeCount, 2 * argumentOffsets.length)];
+		position = align(typesEnd + 1);
+		for (int i = 0; i < typeCount; i++) {
+			argumentOffsets[i] = position;
+			position += argumentSize(buffer.get(typesStart + i), position);
+			if (position > end)
+				throw new IllegalArgumentException("malformed OSC message");
+		}
+		return this;
+	}
+
+	/**
+	 * @return the number of bytes used by the argument at position
+	 */
+	protected int argumentSize(byte type, int position) {
+		switch (type) {
+			case 'i' :
+			case 'f' :
+			case 'c' :
+			case 'r' :
+			case 'm' :
+				return 4;
+			case 'h' :
+			case 'd' :
+			case 't' :
+				return 8;
+			case 's' :
+			case 'S' :
+				return align(endOfString(position) + 1) - position;
+			case 'b' :
+				if (position + 4 > end) return 4;
+				int size = buffer.getInt(position);
+				if (size < 0) throw new IllegalArgumentException("malformed OSC blob");
+				return 4 + ((size + 3) & ~3);
+			case 'T' :
+			case 'F' :
+			case 'N' :
+			case 'I' :
+			case '[' :
+			case ']' :
+				return 0;
+		}
+		throw new IllegalArgumentException("unknown OSC type tag '" + (char) type + "'");
+	}
+
+	private int endOfString(int position) {
+		while (position < end) {
+			if (buffer.get(position) == 0) return position;
+			position++;
+		}
+		throw new IllegalArgumentException("malformed OSC message");
+	}
+
+	private int align(int position) {
+		return offset + ((position - offset + 3) & ~3);
+	}
+
+	/**
+	 * @return true if the provided bytes start with an OSC bundle header
+	 */
+	public static boolean isBundle(byte[] bytes, int offset, int length) {
+		if (length < 16) return false;
+		for (int i = 0; i < BUNDLE_HEADER.length; i++) {
+			if (bytes[offset + i] != BUNDLE_HEADER[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the buffer this view is reading from
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return the start of the message in the buffer
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return the length of the message
+	 */
+	public int getLength() {
+		return end - offset;
+	}
+
+	/**
+	 * @return the length of the address without padding
+	 */
+	public int getAddressLength() {
+		return addressEnd - offset;
+	}
+
+	/**
+	 * @return the address byte at the provided index
+	 */
+	public byte getAddressByte(int index) {
+		return buffer.get(offset + index);
+	}
+
+	/**
+	 * Compare the address of this message with the provided ASCII bytes
+	 * @param address the address without padding
+	 * @return true if the address is equal
+	 */
+	public boolean addressEquals(byte[] address) {
+		if (address.length != addressEnd - offset) return false;
+		for (int i = 0; i < address.length; i++) {
+			if (buffer.get(offset + i) != address[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Compare the address of this message with the provided String
+	 * @param address the address
+	 * @return true if the address is equal
+	 */
+	public boolean addressEquals(String address) {
+		if (address.length() != addressEnd - offset) return false;
+		for (int i = 0; i < address.length(); i++) {
+			if ((char) buffer.get(offset + i) != address.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Creates a new String, use addressEquals() on the receive path
+	 * @return the address of this message
+	 */
+	public String getAddress() {
+		return readString(offset, addressEnd);
+	}
+
+	/**
+	 * @return the number of type tags and thereby arguments
+	 */
+	public int getArgumentCount() {
+		return typeCount;
+	}
+
+	/**
+	 * @return the type tag of the argument at index
+	 */
+	public char getType(int index) {
+		checkIndex(index);
+		return (char) buffer.get(typesStart + index);
+	}
+
+	/**
+	 * @return the argument at index as an int
+	 */
+	public int getInt(int index) {
+		checkIndex(index);
+		int position = argumentOffsets[index];
+		switch (buffer.get(typesStart + index)) {
+			case 'i' :
+			case 'c' :
+			case 'r' :
+			case 'm' :
+				return buffer.getInt(position);
+			case 'h' :
+				return (int) buffer.getLong(position);
+			case 'f' :
+				return (int) buffer.getFloat(position);
+			case 'd' :
+				return (int) buffer.getDouble(position);
+		}
+		throw typeMismatch(index, "int");
+	}
+
+	/**
+	 * @return the argument at index as a long
+	 */
+	public long getLong(int index) {
+		checkIndex(index);
+		int position = argumentOffsets[index];
+		switch (buffer.get(typesStart + index)) {
+			case 'h' :
+			case 't' :
+				return buffer.getLong(position);
+			case 'i' :
+				return buffer.getInt(position);
+			case 'f' :
+				return (long) buffer.getFloat(position);
+			case 'd' :
+				return (long) buffer.getDouble(position);
+		}
+		throw typeMismatch(index, "long");
+	}
+
+	/**
+	 * @return the argument at index as a float
+	 */
+	public float getFloat(int index) {
+		checkIndex(index);
+		int position = argumentOffsets[index];
+		switch (buffer.get(typesStart + index)) {
+			case 'f' :
+				return buffer.getFloat(position);
+			case 'd' :
+				return (float) buffer.getDouble(position);
+			case 'i' :
+				return buffer.getInt(position);
+			case 'h' :
+				return buffer.getLong(position);
+		}
+		throw typeMismatch(index, "float");
+	}
+
+	/**
+	 * @return the argument at index as a double
+	 */
+	public double getDouble(int index) {
+		checkIndex(index);
+		int position = argumentOffsets[index];
+		switch (buffer.get(typesStart + index)) {
+			case 'd' :
+				return buffer.getDouble(position);
+			case 'f' :
+				return buffer.getFloat(position);
+			case 'i' :
+				return buffer.getInt(position);
+			case 'h' :
+				return buffer.getLong(position);
+		}
+		throw typeMismatch(index, "double");
+	}
+
+	/**
+	 * @return the T or F argument at index as a boolean
+	 */
+	public boolean getBoolean(int index) {
+		checkIndex(index);
+		switch (buffer.get(typesStart + index)) {
+			case 'T' :
+				return true;
+			case 'F' :
+				return false;
+		}
+		throw typeMismatch(index, "boolean");
+	}
+
+	/**
+	 * @return the c argument at index
+	 */
+	public char getChar(int index) {
+		checkIndex(index);
+		if (buffer.get(typesStart + index) != 'c') throw typeMismatch(index, "char");
+		return (char) (buffer.getInt(argumentOffsets[index]) & 0xFF);
+	}
+
+	/**
+	 * @return the raw 64 bit NTP time tag argument at index
+	 */
+	public long getTimeTag(int index) {
+		checkIndex(index);
+		if (buffer.get(typesStart + index) != 't') throw typeMismatch(index, "time tag");
+		return buffer.getLong(argumentOffsets[index]);
+	}
+
+	/**
+	 * @return true if the argument at index is nil
+	 */
+	public boolean isNil(int index) {
+		return getType(index) == 'N';
+	}
+
+	/**
+	 * @return the length of the blob argument at index
+	 */
+	public int getBlobLength(int index) {
+		return buffer.getInt(blobOffset(index));
+	}
+
+	/**
+	 * @return the absolute offset of the blob data at index within getBuffer()
+	 */
+	public int getBlobOffset(int index) {
+		return blobOffset(index) + 4;
+	}
+
+	/**
+	 * The blob is not copied, the returned buffer is a read-only slice
+	 * of the message buffer and only valid as long as the view is.
+	 * Use getBlobOffset() and getBlobLength() on the receive path.
+	 * @return the blob argument at index
+	 */
+	public ByteBuffer getBlob(int index) {
+		int position = blobOffset(index);
+		ByteBuffer blob = buffer.duplicate();
+		blob.limit(position + 4 + buffer.getInt(position));
+		blob.position(position + 4);
+		return blob.slice().asReadOnlyBuffer();
+	}
+
+	private int blobOffset(int index) {
+		checkIndex(index);
+		if (buffer.get(typesStart + index) != 'b') throw typeMismatch(index, "blob");
+		return argumentOffsets[index];
+	}
+
+	/**
+	 * Compare the string argument at index with the provided ASCII bytes
+	 * @return true if the argument is a string equal to value
+	 */
+	public boolean stringEquals(int index, byte[] value) {
+		int position = stringOffset(index);
+		if (position < 0) return false;
+		for (int i = 0; i < value.length; i++) {
+			if (buffer.get(position + i) != value[i]) return false;
+		}
+		return buffer.get(position + value.length) == 0;
+	}
+
+	/**
+	 * Compare the string argument at index with the provided String
+	 * @return true if the argument is a string equal to value
+	 */
+	public boolean stringEquals(int index, String value) {
+		int position = stringOffset(index);
+		if (position < 0) return false;
+		int length = value.length();
+		if (position + length >= end) return false;
+		for (int i = 0; i < length; i++) {
+			if ((char) buffer.get(position + i) != value.charAt(i)) return false;
+		}
+		return buffer.get(position + length) == 0;
+	}
+
+	/**
+	 * Creates a new String, use stringEquals() on the receive path
+	 * @return the string argument at index
+	 */
+	public String getString(int index) {
+		int position = stringOffset(index);
+		if (position < 0) throw typeMismatch(index, "String");
+		return readString(position, endOfString(position));
+	}
+
+	private int stringOffset(int index) {
+		checkIndex(index);
+		byte type = buffer.get(typesStart + index);
+		if ((type != 's') && (type != 'S')) return -1;
+		return argumentOffsets[index];
+	}
+
+	private String readString(int from, int to) {
+		char[] chars = new char[to - from];
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = (char) buffer.get(from + i);
+		return new String(chars);
+	}
+
+	private void checkIndex(int index) {
+		if ((index < 0) || (index >= typeCount))
+			throw new IndexOutOfBoundsException("argument " + index + " of " + typeCount);
+	}
+
+	private IllegalArgumentException typeMismatch(int index, String type) {
+		return new IllegalArgumentException("argument " + index + " of type '" + getType(index) + "' is not a " + type);
+	}
+
+}
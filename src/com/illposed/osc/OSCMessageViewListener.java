@@ -0,0 +1,22 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ * Interface for things that listen for incoming OSC Messages
+ * without converting them into OSCMessage objects
+ */
+
+package com.illposed.osc;
+
+public interface OSCMessageViewListener {
+
+	/**
+	 * Accept an incoming message, the view is only valid during this call
+	 * @param timeTag  the raw 64 bit NTP time tag of the enclosing bundle,
+	 *                 OSCMessageView.TIMETAG_IMMEDIATE means execute now
+	 * @param message  the message view
+	 */
+	public void acceptMessage(long timeTag, OSCMessageView message);
+
+}
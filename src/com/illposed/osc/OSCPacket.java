@@ -28,13 +28,60 @@ public abstract class OSCPacket {
 
 	protected byte[] byteArray;
 
+	// set while a pooled packet is not handed out
+	protected boolean released;
+
 	public OSCPacket() {
 		super();
 	}
 
+	/**
+	 * Clear the content of this packet so it can be reused by a packet pool
+	 */
+	public void reset() {
+		byteArray = null;
+	}
+
+	/**
+	 * Mark this packet as returned to or taken from its pool
+	 * @param released
+	 */
+	public void setReleased(boolean released) {
+		this.released = released;
+	}
+
+	/**
+	 * @return true if this packet has been released to its pool
+	 */
+	public boolean isReleased() {
+		return released;
+	}
+
+	/**
+	 * Fail when a packet is used after it was released to its pool,
+	 * which means a listener kept a reference after acceptMessage returned
+	 */
+	protected void checkReleased() {
+		if (released)
+			throw new IllegalStateException(getClass().getName() + " was used after it has been released to its pool");
+	}
+
 	protected void computeByteArray() {
+		OSCByteBufferEncoder encoder = new OSCByteBufferEncoder();
+		encode(encoder);
+		byteArray = encoder.toByteArray();
+	}
+
+	/**
+	 * Write this packet into an encoder, in one pass and without intermediate arrays.
+	 * Subclasses that only implement computeByteArray(OSCJavaToByteArrayConverter)
+	 * are written through the converter.
+	 * @param encoder  the encoder, positioned where the packet starts
+	 */
+	public void encode(OSCByteBufferEncoder encoder) {
 		OSCJavaToByteArrayConverter stream = new OSCJavaToByteArrayConverter();
 		computeByteArray(stream);
+		encoder.writeBytes(byteArray, 0, byteArray.length);
 	}
 
 	/**
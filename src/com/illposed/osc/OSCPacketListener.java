@@ -0,0 +1,22 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ * Interface for things that receive the raw bytes of every incoming
+ * OSC packet before it is decoded, such as forwarders and recorders
+ */
+
+package com.illposed.osc;
+
+public interface OSCPacketListener {
+
+	/**
+	 * Accept an incoming packet, the bytes are only valid during this call
+	 * @param bytes   the receive buffer
+	 * @param offset  the start of the packet
+	 * @param length  the length of the packet
+	 */
+	public void acceptPacket(byte[] bytes, int offset, int length);
+
+}
@@ -32,6 +32,13 @@ public abstract class OSCPort {
 	 */
 	public static final int defaultSCLangOSCPort = 57120;
 	
+	/**
+	 * @return the port number, or 0 for ports that are not bound to a UDP or TCP port
+	 */
+	public int getPort() {
+		return port;
+	}
+
 	/**
 	 * Close the socket and free-up resources. It's recommended that clients call
 	 * this when they are done with the port.
@@ -30,16 +30,29 @@ package com.illposed.osc;
 
 import java.net.*;
 import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
 import com.illposed.osc.utility.OSCByteArrayToJavaConverter;
 import com.illposed.osc.utility.OSCPacketDispatcher;
+import com.illposed.osc.utility.OSCPacketRing;
+import com.illposed.osc.utility.OSCThreadFactory;
 
-public class OSCPortIn extends OSCPort implements Runnable {
+public class OSCPortIn extends OSCPort implements OSCReceiver, Runnable {
 
 	// state for listening
 	protected boolean isListening;
 	protected OSCByteArrayToJavaConverter converter = new OSCByteArrayToJavaConverter();
 	protected OSCPacketDispatcher dispatcher = new OSCPacketDispatcher();
+	protected OSCPacketRing ring;
+	protected Executor executor;
 	
+	/**
+	 * Constructor for subclasses that provide their own receive socket or channel
+	 */
+	protected OSCPortIn() {
+		super();
+	}
+
 	/**
 	 * Create an OSCPort that listens on port
 	 * @param port
@@ -50,6 +63,34 @@ public class OSCPortIn extends OSCPort implements Runnable {
 		this.port = port;
 	}
 
+	/**
+	 * Create an OSCPort that listens to a multicast group on port. Several
+	 * ports on the same host can join the same group and port, and each
+	 * receives every packet sent to the group.
+	 * @param port
+	 * @param group             the multicast group address
+	 * @param networkInterface  the interface to join the group on, or null for the default interface
+	 * @throws SocketException
+	 */
+	public OSCPortIn(int port, InetAddress group, NetworkInterface networkInterface) throws SocketException {
+		if (!group.isMulticastAddress())
+			throw new SocketException(group + " is not a multicast address");
+		MulticastSocket multicastSocket;
+		try {
+			multicastSocket = new MulticastSocket(port);
+		} catch (IOException e) {
+			throw new SocketException("could not open multicast socket on port " + port + ": " + e.getMessage());
+		}
+		try {
+			multicastSocket.joinGroup(new InetSocketAddress(group, port), networkInterface);
+		} catch (IOException e) {
+			multicastSocket.close();
+			throw new SocketException("could not join " + group + ": " + e.getMessage());
+		}
+		socket = multicastSocket;
+		this.port = port;
+	}
+
 	/**
 	 * @see java.lang.Runnable#run()
 	 */
@@ -61,8 +102,12 @@ public class OSCPortIn extends OSCPort implements Runnable {
 			try {
 				packet.setLength(65536);
 				socket.receive(packet);
-				OSCPacket oscPacket = converter.convert(buffer, packet.getLength());
-				dispatcher.dispatchPacket(oscPacket);
+				try {
+					handlePacket(buffer, 0, packet.getLength());
+				} catch (RuntimeException e) {
+					// a malformed packet must not end the receive loop
+					if (isListening) e.printStackTrace();
+				}
 			} catch (java.net.SocketException e) {
 				if (isListening) e.printStackTrace();
 			} catch (IOException e) {
@@ -71,13 +116,77 @@ public class OSCPortIn extends OSCPort implements Runnable {
 		}
 	}
 	
+	/**
+	 * Pass a received packet on to the dispatcher, or queue it
+	 * for the processing thread if a packet ring is set
+	 * @param bytes   the receive buffer, which is reused after this call
+	 * @param offset  the start of the packet
+	 * @param length  the length of the packet
+	 */
+	protected void handlePacket(byte[] bytes, int offset, int length) {
+		if (ring != null) ring.offer(bytes, offset, length, System.nanoTime());
+		else dispatcher.dispatchPacket(bytes, offset, length);
+	}
+
+	/**
+	 * Decode and dispatch the received packets on a separate processing thread,
+	 * so slow listeners don't hold up the receive thread. The listeners are
+	 * then called from the processing thread. Has to be set before startListening.
+	 * @param ring  the ring that queues the raw packets, or null to dispatch on the receive thread
+	 */
+	public void setPacketRing(OSCPacketRing ring) {
+		if (isListening) throw new IllegalStateException("the port is already listening");
+		this.ring = ring;
+	}
+
+	/**
+	 * @return the packet ring or null
+	 */
+	public OSCPacketRing getPacketRing() {
+		return ring;
+	}
+
+	/**
+	 * Create the receive and processing threads with the given factory,
+	 * such as OSCThreadFactory.virtualThreads(). Has to be set before startListening.
+	 * @param factory  the thread factory
+	 */
+	public void setThreadFactory(final ThreadFactory factory) {
+		setExecutor(new Executor() {
+			public void execute(Runnable task) {
+				factory.newThread(task).start();
+			}
+		});
+	}
+
+	/**
+	 * Run the receive loop and the packet ring processing on the given executor.
+	 * Both loops occupy their worker until stopListening, so a thread pool needs
+	 * two workers per port. Has to be set before startListening.
+	 * @param executor  the executor, or null for the default named threads
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @return the executor, by default an OSCThreadFactory for non-daemon threads named after the port
+	 */
+	protected Executor getExecutor() {
+		if (executor == null) {
+			String name = getClass().getSimpleName();
+			executor = new OSCThreadFactory((port > 0) ? name + "-" + port : name);
+		}
+		return executor;
+	}
+
 	/**
 	 * Start listening for incoming OSCPackets
 	 */
 	public void startListening() {
 		isListening = true;
-		Thread thread = new Thread(this);
-		thread.start();
+		if (ring != null) ring.start(dispatcher, getExecutor());
+		getExecutor().execute(this);
 	}
 	
 	/**
@@ -85,6 +194,7 @@ public class OSCPortIn extends OSCPort implements Runnable {
 	 */
 	public void stopListening() {
 		isListening = false;
+		if (ring != null) ring.stop();
 	}
 	
 	/**
@@ -95,19 +205,74 @@ public class OSCPortIn extends OSCPort implements Runnable {
 	}
 	
 	/**
-	 * Register the listener for incoming OSCPackets addressed to an Address
-	 * @param anAddress  the address to listen for
+	 * Register the listener for incoming OSCPackets addressed to an Address,
+	 * several listeners can be registered for the same Address.
+	 * The Address may also be an OSC pattern such as "/tuio/*"
+	 * @param anAddress  the address or address pattern to listen for
 	 * @param listener   the object to invoke when a message comes in
 	 */
 	public void addListener(String anAddress, OSCListener listener) {
 		dispatcher.addListener(anAddress, listener);
 	}
+
+	/**
+	 * Register a listener that reads incoming messages in place without creating OSCMessages
+	 * @param anAddress  the address to listen for
+	 * @param listener   the object to invoke when a message comes in
+	 */
+	public void addViewListener(String anAddress, OSCMessageViewListener listener) {
+		dispatcher.addViewListener(anAddress, listener);
+	}
+	
+	/**
+	 * Register a listener for the raw bytes of every incoming packet, before it is decoded
+	 * @param listener  the object to invoke when a packet comes in
+	 */
+	public void addPacketListener(OSCPacketListener listener) {
+		dispatcher.addPacketListener(listener);
+	}
+
+	/**
+	 * Remove a raw packet listener
+	 * @param listener  the listener to remove
+	 */
+	public void removePacketListener(OSCPacketListener listener) {
+		dispatcher.removePacketListener(listener);
+	}
+
+	/**
+	 * Reuse the OSCMessages passed to OSCListeners, which then must not
+	 * keep a reference to a message after acceptMessage returns
+	 * @param recycling  true to release messages to a pool after dispatch
+	 */
+	public void setRecycling(boolean recycling) {
+		dispatcher.setRecycling(recycling, false);
+	}
+
+	/**
+	 * Like setRecycling(true), but released messages are never reused and
+	 * fail with an IllegalStateException if a listener accesses them later
+	 * @param debugRecycling  true to detect listeners that retain messages
+	 */
+	public void setDebugRecycling(boolean debugRecycling) {
+		dispatcher.setRecycling(debugRecycling, debugRecycling);
+	}
+
+	/**
+	 * Remove a listener that was registered for an Address
+	 * @param anAddress  the address the listener was registered for
+	 * @param listener   the OSCListener or OSCMessageViewListener to remove
+	 */
+	public void removeListener(String anAddress, Object listener) {
+		dispatcher.removeListener(anAddress, listener);
+	}
 	
 	/**
 	 * Close the socket and free-up resources. It's recommended that clients call
 	 * this when they are done with the port.
 	 */
 	public void close() {
+		if (ring != null) ring.stop();
 		socket.close();
 	}
 
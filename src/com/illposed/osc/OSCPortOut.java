@@ -31,11 +31,16 @@ package com.illposed.osc;
 
 import java.net.*;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import com.illposed.osc.utility.OSCByteArrayToJavaConverter;
+import com.illposed.osc.utility.OSCByteBufferEncoder;
 
-public class OSCPortOut extends OSCPort {
+public class OSCPortOut extends OSCPort implements OSCSender {
 
 	protected InetAddress address;
+	protected DatagramPacket packet;
+	protected byte[] copyBuffer;
+	protected OSCByteBufferEncoder encoder;
 
 	/**
 	 * Create an OSCPort that sends to newAddress, newPort
@@ -48,6 +53,30 @@ public class OSCPortOut extends OSCPort {
 		port = newPort;
 	}
 
+	/**
+	 * Create an OSCPort that sends to a multicast group, so that a single send
+	 * reaches all receivers that joined the group
+	 * @param group             the multicast group address
+	 * @param newPort           the port of the receivers
+	 * @param networkInterface  the interface to send from, or null for the default interface
+	 * @param timeToLive        the number of router hops, 0 restricts the packets to this host
+	 */
+	public OSCPortOut(InetAddress group, int newPort, NetworkInterface networkInterface, int timeToLive) throws IOException {
+		if (!group.isMulticastAddress())
+			throw new SocketException(group + " is not a multicast address");
+		MulticastSocket multicastSocket = new MulticastSocket();
+		try {
+			if (networkInterface != null) multicastSocket.setNetworkInterface(networkInterface);
+			multicastSocket.setTimeToLive(timeToLive);
+		} catch (IOException e) {
+			multicastSocket.close();
+			throw e;
+		}
+		socket = multicastSocket;
+		address = group;
+		port = newPort;
+	}
+
 	/**
 	 * Create an OSCPort that sends to newAddress, on the standard SuperCollider port
 	 * @param newAddress InetAddress
@@ -70,10 +99,38 @@ public class OSCPortOut extends OSCPort {
 	/**
 	 * @param aPacket OSCPacket
 	 */
-	public void send(OSCPacket aPacket) throws IOException {
-		byte[] byteArray = aPacket.getByteArray();
-		DatagramPacket packet = 
-			new DatagramPacket(byteArray, byteArray.length,address,port);
+	public synchronized void send(OSCPacket aPacket) throws IOException {
+		if (encoder == null) encoder = new OSCByteBufferEncoder();
+		ByteBuffer buffer = encoder.encode(aPacket);
+		send(buffer.array(), buffer.arrayOffset(), buffer.position());
+	}
+
+	/**
+	 * Send an already encoded packet
+	 * @param bytes   the packet bytes
+	 * @param offset  the start of the packet
+	 * @param length  the length of the packet
+	 */
+	public synchronized void send(byte[] bytes, int offset, int length) throws IOException {
+		if (packet == null) packet = new DatagramPacket(bytes, offset, length, address, port);
+		else packet.setData(bytes, offset, length);
 		socket.send(packet);
 	}
+
+	/**
+	 * Send a packet encoded into a ByteBuffer, such as by an OSCByteBufferEncoder.
+	 * The bytes from the position to the limit are sent, the position is not changed.
+	 * @param buffer  a heap or direct buffer
+	 */
+	public synchronized void send(ByteBuffer buffer) throws IOException {
+		int length = buffer.remaining();
+		if (buffer.hasArray()) {
+			send(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+			return;
+		}
+		// a direct buffer is copied into a reusable array
+		if ((copyBuffer == null) || (copyBuffer.length < length)) copyBuffer = new byte[Math.max(length, 1024)];
+		buffer.duplicate().get(copyBuffer, 0, length);
+		send(copyBuffer, 0, length);
+	}
 }
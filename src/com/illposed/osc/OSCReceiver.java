@@ -0,0 +1,68 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ * Interface for OSC transports that receive packets and dispatch
+ * them to listeners, such as OSCPortIn and all its variants.
+ * A TuioClient can be constructed with any OSCReceiver.
+ */
+
+package com.illposed.osc;
+
+public interface OSCReceiver {
+
+	/**
+	 * Register a listener for an address or address pattern
+	 * @param address   the address or pattern to listen for
+	 * @param listener  the object to invoke when a message comes in
+	 */
+	public void addListener(String address, OSCListener listener);
+
+	/**
+	 * Register a listener that reads incoming messages in place
+	 * @param address   the address or pattern to listen for
+	 * @param listener  the object to invoke when a message comes in
+	 */
+	public void addViewListener(String address, OSCMessageViewListener listener);
+
+	/**
+	 * Remove a listener of either kind from an address
+	 * @param address   the address the listener was registered for
+	 * @param listener  the listener to remove
+	 */
+	public void removeListener(String address, Object listener);
+
+	/**
+	 * Register a listener for the raw bytes of every incoming packet
+	 * @param listener  the object to invoke when a packet comes in
+	 */
+	public void addPacketListener(OSCPacketListener listener);
+
+	/**
+	 * Remove a raw packet listener
+	 * @param listener  the listener to remove
+	 */
+	public void removePacketListener(OSCPacketListener listener);
+
+	/**
+	 * Start receiving packets
+	 */
+	public void startListening();
+
+	/**
+	 * Stop receiving packets
+	 */
+	public void stopListening();
+
+	/**
+	 * @return true while packets are received
+	 */
+	public boolean isListening();
+
+	/**
+	 * Free-up all resources of the transport
+	 */
+	public void close();
+
+}
@@ -0,0 +1,35 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ * Interface for OSC transports that send packets, such as OSCPortOut
+ * and all its variants
+ */
+
+package com.illposed.osc;
+
+import java.io.IOException;
+
+public interface OSCSender {
+
+	/**
+	 * Encode and send a packet
+	 * @param packet  the message or bundle
+	 */
+	public void send(OSCPacket packet) throws IOException;
+
+	/**
+	 * Send an already encoded packet
+	 * @param bytes   the packet bytes
+	 * @param offset  the start of the packet
+	 * @param length  the length of the packet
+	 */
+	public void send(byte[] bytes, int offset, int length) throws IOException;
+
+	/**
+	 * Free-up all resources of the transport
+	 */
+	public void close();
+
+}
@@ -0,0 +1,164 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ *
+ * OSCShardedPortIn spreads the receive and decode work for one UDP port
+ * over several threads. It opens a number of OSCChannelPortIn shards that
+ * are all bound to the same port with SO_REUSEPORT, each with its own
+ * receive thread, buffers and decoding state, all sharing one dispatcher.
+ *
+ * The kernel distributes incoming datagrams over the sockets by hashing
+ * the source and destination address, so all packets of a given tracker
+ * are always received by the same shard and stay in order. Packets of
+ * different trackers are dispatched concurrently though, so listeners
+ * must be thread safe when using more than one shard.
+ *
+ * SO_REUSEPORT requires Java 9 and an operating system that supports it,
+ * such as Linux.
+ */
+
+package com.illposed.osc;
+
+import java.net.*;
+import java.io.IOException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.Executor;
+import com.illposed.osc.utility.OSCPacketRing;
+import com.illposed.osc.utility.OSCThreadFactory;
+
+public class OSCShardedPortIn extends OSCPortIn {
+
+	protected OSCChannelPortIn[] shards;
+
+	/**
+	 * Create an OSCShardedPortIn with one shard per available processor
+	 * @param port
+	 * @throws SocketException if SO_REUSEPORT is not supported
+	 */
+	public OSCShardedPortIn(int port) throws SocketException {
+		this(port, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create an OSCShardedPortIn that listens on port with the given number of shards
+	 * @param port
+	 * @param shardCount  the number of sockets and receive threads
+	 * @throws SocketException if SO_REUSEPORT is not supported
+	 */
+	public OSCShardedPortIn(int port, int shardCount) throws SocketException {
+		super();
+		if (shardCount < 1) shardCount = 1;
+		shards = new OSCChannelPortIn[shardCount];
+		try {
+			for (int i = 0; i < shardCount; i++) {
+				shards[i] = new OSCChannelPortIn(port, OSCChannelPortIn.DEFAULT_BATCH_CAPACITY,
+					OSCChannelPortIn.DEFAULT_BATCH_PACKETS, shardCount > 1);
+				shards[i].dispatcher = dispatcher;
+				shards[i].setExecutor(new OSCThreadFactory("OSCShardedPortIn-" + port + "-" + i));
+			}
+		} catch (SocketException e) {
+			close();
+			throw e;
+		}
+		socket = shards[0].socket;
+		this.port = port;
+	}
+
+	/**
+	 * @return true if several sockets can be bound to the same port
+	 */
+	public static boolean isReusePortSupported() {
+		SocketOption<Boolean> option = OSCChannelPortIn.reusePortOption();
+		if (option == null) return false;
+		try {
+			DatagramChannel channel = DatagramChannel.open();
+			try {
+				return channel.supportedOptions().contains(option);
+			} finally {
+				channel.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the number of shards
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * A ring only takes packets from a single thread, so the first shard uses
+	 * this ring and every other shard gets a ring of the same configuration
+	 * with its own processing thread. The listeners are still called
+	 * concurrently by the processing threads of several shards.
+	 * @param ring  the ring of the first shard, or null to dispatch on the receive threads
+	 */
+	public void setPacketRing(OSCPacketRing ring) {
+		super.setPacketRing(ring);
+		for (int i = 0; i < shards.length; i++) {
+			if ((ring == null) || (i == 0)) shards[i].setPacketRing(ring);
+			else shards[i].setPacketRing(new OSCPacketRing(ring.getCapacity(), ring.getSlotSize(),
+				ring.getWaitStrategy(), ring.getOverflowPolicy()));
+		}
+	}
+
+	/**
+	 * @param index  the shard index
+	 * @return the packet ring of a shard or null
+	 */
+	public OSCPacketRing getPacketRing(int index) {
+		return shards[index].getPacketRing();
+	}
+
+	/**
+	 * Run the receive loops of all shards on the given executor
+	 * @param executor  the executor, which needs a worker per shard
+	 */
+	public void setExecutor(Executor executor) {
+		super.setExecutor(executor);
+		for (int i = 0; i < shards.length; i++)
+			shards[i].setExecutor(executor);
+	}
+
+	/**
+	 * The shards run their own receive loops
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+	}
+
+	/**
+	 * Start listening for incoming OSCPackets on all shards
+	 */
+	public void startListening() {
+		isListening = true;
+		for (int i = 0; i < shards.length; i++)
+			shards[i].startListening();
+	}
+
+	/**
+	 * Stop listening for incoming OSCPackets on all shards
+	 */
+	public void stopListening() {
+		isListening = false;
+		for (int i = 0; i < shards.length; i++)
+			shards[i].stopListening();
+	}
+
+	/**
+	 * Close all shards and free-up resources. It's recommended that clients call
+	 * this when they are done with the port.
+	 */
+	public void close() {
+		isListening = false;
+		for (int i = 0; i < shards.length; i++) {
+			if (shards[i] != null) shards[i].close();
+		}
+	}
+
+}
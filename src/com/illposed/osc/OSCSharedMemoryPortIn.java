@@ -0,0 +1,145 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ *
+ * OSCSharedMemoryPortIn reads OSC packets from an OSCSharedMemoryRing
+ * that is written by an OSCSharedMemoryPortOut on the same host. Instead
+ * of blocking in a socket it polls the memory mapped ring, spinning for
+ * a while after each packet and then sleeping for the poll interval, and
+ * passes the packets to the usual decode and dispatch path.
+ *
+ * Any number of readers can follow the same ring, each starts with the
+ * packets written after it was opened. Packets that were overwritten
+ * before a slow reader got to them are counted in getLostCount().
+ *
+ * It is used exactly like OSCPortIn:
+
+		receiver = new OSCSharedMemoryPortIn("/dev/shm/tuio");
+		receiver.addListener("/tuio/2Dcur", listener);
+		receiver.startListening();
+
+ */
+
+package com.illposed.osc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+import com.illposed.osc.utility.OSCSharedMemoryRing;
+import com.illposed.osc.utility.OSCThreadFactory;
+
+public class OSCSharedMemoryPortIn extends OSCPortIn {
+
+	/**
+	 * The default time to sleep when the ring is empty
+	 */
+	public static final long DEFAULT_POLL_NANOS = 20000;
+
+	/**
+	 * The number of empty polls before the reader starts to sleep
+	 */
+	protected static final int SPIN_COUNT = 1000;
+
+	protected OSCSharedMemoryRing sharedRing;
+	protected String path;
+	protected long pollNanos;
+	protected long readSequence;
+	protected byte[] packetBytes;
+	protected volatile long lostCount = 0;
+
+	/**
+	 * Create an OSCSharedMemoryPortIn that reads the ring file with the default poll interval
+	 * @param path  the ring file created by an OSCSharedMemoryPortOut
+	 * @throws IOException if the file is not an OSC ring
+	 */
+	public OSCSharedMemoryPortIn(String path) throws IOException {
+		this(path, DEFAULT_POLL_NANOS);
+	}
+
+	/**
+	 * @param path       the ring file created by an OSCSharedMemoryPortOut
+	 * @param pollNanos  the time to sleep when the ring is empty
+	 * @throws IOException if the file is not an OSC ring
+	 */
+	public OSCSharedMemoryPortIn(String path, long pollNanos) throws IOException {
+		super();
+		this.path = path;
+		this.pollNanos = pollNanos;
+		sharedRing = OSCSharedMemoryRing.open(new File(path));
+		packetBytes = new byte[sharedRing.getSlotSize()];
+		readSequence = sharedRing.getWriteSequence();
+	}
+
+	/**
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		int idle = 0;
+		while (isListening) {
+			if (poll()) idle = 0;
+			else if (++idle > SPIN_COUNT) LockSupport.parkNanos(pollNanos);
+		}
+	}
+
+	/**
+	 * Dispatch all packets that were written since the last poll
+	 * @return false if there was no new packet
+	 */
+	protected boolean poll() {
+		long writeSequence = sharedRing.getWriteSequence();
+		if (writeSequence < readSequence) {
+			// the writer has recreated the ring
+			readSequence = writeSequence;
+			return false;
+		}
+		if (writeSequence == readSequence) return false;
+		if (writeSequence - readSequence > sharedRing.getSlotCount()) {
+			lostCount += writeSequence - readSequence - sharedRing.getSlotCount();
+			readSequence = writeSequence - sharedRing.getSlotCount();
+		}
+		while (readSequence < writeSequence) {
+			int length = sharedRing.read(readSequence, packetBytes);
+			readSequence++;
+			if (length < 0) {
+				lostCount++;
+				continue;
+			}
+			try {
+				handlePacket(packetBytes, 0, length);
+			} catch (RuntimeException e) {
+				// a malformed packet must not end the reader
+				if (isListening) e.printStackTrace();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of packets that were overwritten before they could be read
+	 */
+	public long getLostCount() {
+		return lostCount;
+	}
+
+	/**
+	 * @return the executor, by default an OSCThreadFactory for non-daemon threads named after the ring file
+	 */
+	protected Executor getExecutor() {
+		if (executor == null) executor = new OSCThreadFactory("OSCSharedMemoryPortIn-" + path);
+		return executor;
+	}
+
+	/**
+	 * Close the ring file and free-up resources. It's recommended that clients call
+	 * this when they are done with the port.
+	 */
+	public void close() {
+		isListening = false;
+		if (ring != null) ring.stop();
+		sharedRing.close();
+	}
+
+}
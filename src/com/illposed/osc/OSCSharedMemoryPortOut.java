@@ -0,0 +1,96 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ *
+ * OSCSharedMemoryPortOut writes OSC packets into an OSCSharedMemoryRing,
+ * a memory mapped file that any number of OSCSharedMemoryPortIn readers
+ * on the same host poll without a system call per packet. The writer
+ * never waits for the readers, a reader that falls behind loses packets.
+ *
+ * It is used like OSCPortOut:
+
+		sender = new OSCSharedMemoryPortOut("/dev/shm/tuio");
+		sender.send(bundle);
+
+ */
+
+package com.illposed.osc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import com.illposed.osc.utility.OSCByteBufferEncoder;
+import com.illposed.osc.utility.OSCSharedMemoryRing;
+
+public class OSCSharedMemoryPortOut extends OSCPort implements OSCSender {
+
+	/**
+	 * The default number of packets the ring holds
+	 */
+	public static final int DEFAULT_SLOT_COUNT = 256;
+
+	/**
+	 * The default largest packet size
+	 */
+	public static final int DEFAULT_SLOT_SIZE = 16384;
+
+	protected OSCSharedMemoryRing ring;
+	protected OSCByteBufferEncoder encoder = new OSCByteBufferEncoder();
+
+	/**
+	 * Create an OSCSharedMemoryPortOut with the default ring geometry
+	 * @param path  the ring file, preferably on a RAM file system such as /dev/shm
+	 * @throws IOException if the file can't be created and mapped
+	 */
+	public OSCSharedMemoryPortOut(String path) throws IOException {
+		this(path, DEFAULT_SLOT_COUNT, DEFAULT_SLOT_SIZE);
+	}
+
+	/**
+	 * @param path       the ring file, preferably on a RAM file system such as /dev/shm
+	 * @param slotCount  the number of packets the ring holds
+	 * @param slotSize   the largest packet size
+	 * @throws IOException if the file can't be created and mapped
+	 */
+	public OSCSharedMemoryPortOut(String path, int slotCount, int slotSize) throws IOException {
+		ring = OSCSharedMemoryRing.create(new File(path), slotCount, slotSize);
+	}
+
+	/**
+	 * @param aPacket OSCPacket
+	 * @throws IOException if the packet is larger than a ring slot
+	 */
+	public synchronized void send(OSCPacket aPacket) throws IOException {
+		ByteBuffer buffer = encoder.encode(aPacket);
+		send(buffer.array(), buffer.arrayOffset(), buffer.position());
+	}
+
+	/**
+	 * Send an already encoded packet
+	 * @param bytes   the packet bytes
+	 * @param offset  the start of the packet
+	 * @param length  the length of the packet
+	 * @throws IOException if the packet is larger than a ring slot
+	 */
+	public synchronized void send(byte[] bytes, int offset, int length) throws IOException {
+		if (!ring.write(bytes, offset, length))
+			throw new IOException("OSC packet of " + length + " bytes exceeds the ring slot size of " + ring.getSlotSize());
+	}
+
+	/**
+	 * @return the ring this port writes to
+	 */
+	public OSCSharedMemoryRing getRing() {
+		return ring;
+	}
+
+	/**
+	 * Close the ring file, the file itself is kept for the readers
+	 */
+	public void close() {
+		ring.close();
+	}
+
+}
@@ -0,0 +1,240 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ *
+ * OSCStreamPortIn receives OSC packets over TCP connections instead of
+ * UDP datagrams, so packets are neither lost nor limited to 64 KB.
+ *
+ * A single selector thread accepts and serves any number of connections.
+ * The packets are framed with SLIP as specified by OSC 1.1 by default,
+ * or with a length prefix as used by OSC 1.0 stream transports. Every
+ * connection decodes its frames incrementally into its own reusable
+ * buffer, and the complete packets are dispatched just like datagrams.
+ *
+ * It is used exactly like OSCPortIn:
+
+		receiver = new OSCStreamPortIn(3333);
+		receiver.addListener("/tuio/2Dcur", listener);
+		receiver.startListening();
+
+ */
+
+package com.illposed.osc;
+
+import java.net.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import com.illposed.osc.utility.OSCStreamFramer;
+
+public class OSCStreamPortIn extends OSCPortIn {
+
+	/**
+	 * The default maximum packet size accepted from a connection
+	 */
+	public static final int DEFAULT_MAX_PACKET_SIZE = 4 * 1024 * 1024;
+
+	protected ServerSocketChannel serverChannel;
+	protected Selector selector;
+	protected int framing;
+	protected int maxPacketSize;
+	protected ByteBuffer readBuffer = ByteBuffer.allocate(65536);
+	protected volatile int connectionCount = 0;
+
+	/**
+	 * Create an OSCStreamPortIn that accepts SLIP framed connections on port
+	 * @param port
+	 * @throws SocketException
+	 */
+	public OSCStreamPortIn(int port) throws SocketException {
+		this(port, OSCStreamFramer.SLIP);
+	}
+
+	/**
+	 * Create an OSCStreamPortIn that accepts connections on port
+	 * @param port
+	 * @param framing  OSCStreamFramer.SLIP or OSCStreamFramer.LENGTH_PREFIX
+	 * @throws SocketException
+	 */
+	public OSCStreamPortIn(int port, int framing) throws SocketException {
+		this(new InetSocketAddress(port), framing, DEFAULT_MAX_PACKET_SIZE);
+		this.port = port;
+	}
+
+	/**
+	 * Create an OSCStreamPortIn that accepts connections on a local address
+	 * @param address        the address to bind the server channel to
+	 * @param framing        OSCStreamFramer.SLIP or OSCStreamFramer.LENGTH_PREFIX
+	 * @param maxPacketSize  the largest packet accepted, larger packets close the connection
+	 * @throws SocketException
+	 */
+	public OSCStreamPortIn(SocketAddress address, int framing, int maxPacketSize) throws SocketException {
+		super();
+		this.framing = framing;
+		this.maxPacketSize = maxPacketSize;
+		try {
+			serverChannel = openServerChannel(address);
+			serverChannel.configureBlocking(false);
+			selector = Selector.open();
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			close();
+			throw new SocketException("could not open server channel on " + address + ": " + e.getMessage());
+		}
+		if (address instanceof InetSocketAddress)
+			port = ((InetSocketAddress) address).getPort();
+	}
+
+	/**
+	 * Open and bind the server channel, subclasses can provide other kinds of stream sockets
+	 * @param address  the local address
+	 * @return the bound server channel
+	 */
+	protected ServerSocketChannel openServerChannel(SocketAddress address) throws IOException {
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		channel.bind(address);
+		return channel;
+	}
+
+	/**
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		while (isListening) {
+			try {
+				selector.select();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) continue;
+					if (key.isAcceptable()) accept();
+					else if (key.isReadable()) read(key);
+				}
+			} catch (ClosedSelectorException e) {
+				break;
+			} catch (IOException e) {
+				if (isListening) e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Accept a new connection and register it for reading
+	 */
+	protected void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) return;
+		channel.configureBlocking(false);
+		if (channel.getLocalAddress() instanceof InetSocketAddress)
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+		channel.register(selector, SelectionKey.OP_READ, new OSCStreamFramer(framing, maxPacketSize));
+		connectionCount++;
+	}
+
+	/**
+	 * Read all available bytes of a connection and dispatch the completed packets
+	 * @param key  the selection key of the connection
+	 */
+	protected void read(SelectionKey key) {
+		SocketChannel channel = (SocketChannel) key.channel();
+		OSCStreamFramer framer = (OSCStreamFramer) key.attachment();
+		try {
+			int count;
+			do {
+				readBuffer.clear();
+				count = channel.read(readBuffer);
+				if (count < 0) {
+					closeConnection(key);
+					return;
+				}
+				readBuffer.flip();
+				int length;
+				while ((length = framer.next(readBuffer)) >= 0) {
+					try {
+						handlePacket(framer.getBuffer(), 0, length);
+					} catch (RuntimeException e) {
+						// a malformed packet must not close the connection
+						if (isListening) e.printStackTrace();
+					}
+				}
+			} while (count == readBuffer.capacity());
+		} catch (IOException e) {
+			// a reset connection or a broken frame only ends this connection
+			closeConnection(key);
+		}
+	}
+
+	/**
+	 * Close a single connection
+	 * @param key  the selection key of the connection
+	 */
+	protected void closeConnection(SelectionKey key) {
+		if (key.isValid()) connectionCount--;
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {}
+	}
+
+	/**
+	 * @return the number of open connections
+	 */
+	public int getConnectionCount() {
+		return connectionCount;
+	}
+
+	/**
+	 * @return the framing of this port
+	 */
+	public int getFraming() {
+		return framing;
+	}
+
+	/**
+	 * @return the local address of the server channel
+	 */
+	public SocketAddress getLocalAddress() throws IOException {
+		return serverChannel.getLocalAddress();
+	}
+
+	/**
+	 * Stop listening for incoming OSCPackets
+	 */
+	public void stopListening() {
+		isListening = false;
+		if (ring != null) ring.stop();
+		if (selector != null) selector.wakeup();
+	}
+
+	/**
+	 * Close all connections and the server channel. It's recommended that clients call
+	 * this when they are done with the port.
+	 */
+	public void close() {
+		isListening = false;
+		if (ring != null) ring.stop();
+		if (selector != null) {
+			try {
+				for (SelectionKey key : selector.keys()) {
+					try {
+						key.channel().close();
+					} catch (IOException e) {}
+				}
+				selector.close();
+			} catch (ClosedSelectorException e) {
+			} catch (IOException e) {}
+		}
+		try {
+			if (serverChannel != null) serverChannel.close();
+		} catch (IOException e) {}
+	}
+
+}
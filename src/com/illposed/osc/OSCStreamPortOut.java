@@ -0,0 +1,123 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ *
+ * OSCStreamPortOut sends OSC packets over a TCP connection to an
+ * OSCStreamPortIn or any other OSC stream receiver. The packets are
+ * framed with SLIP as specified by OSC 1.1 by default, or with a length
+ * prefix as used by OSC 1.0 stream transports.
+ *
+ * It is used like OSCPortOut:
+
+		sender = new OSCStreamPortOut(InetAddress.getLocalHost(), 3333);
+		sender.send(message);
+
+ */
+
+package com.illposed.osc;
+
+import java.net.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import com.illposed.osc.utility.OSCByteBufferEncoder;
+import com.illposed.osc.utility.OSCStreamFramer;
+
+public class OSCStreamPortOut extends OSCPort implements OSCSender {
+
+	protected SocketChannel channel;
+	protected int framing;
+	protected ByteBuffer frameBuffer = ByteBuffer.allocate(8192);
+	protected OSCByteBufferEncoder encoder = new OSCByteBufferEncoder();
+
+	/**
+	 * Create an OSCStreamPortOut that sends SLIP framed packets to address, port
+	 * @param address InetAddress
+	 * @param port int
+	 * @throws IOException if the connection can't be established
+	 */
+	public OSCStreamPortOut(InetAddress address, int port) throws IOException {
+		this(address, port, OSCStreamFramer.SLIP);
+	}
+
+	/**
+	 * Create an OSCStreamPortOut that sends to address, port
+	 * @param address InetAddress
+	 * @param port int
+	 * @param framing  OSCStreamFramer.SLIP or OSCStreamFramer.LENGTH_PREFIX
+	 * @throws IOException if the connection can't be established
+	 */
+	public OSCStreamPortOut(InetAddress address, int port, int framing) throws IOException {
+		this(new InetSocketAddress(address, port), framing);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+		this.port = port;
+	}
+
+	/**
+	 * Create an OSCStreamPortOut that connects to a remote address
+	 * @param address  the address of the receiver
+	 * @param framing  OSCStreamFramer.SLIP or OSCStreamFramer.LENGTH_PREFIX
+	 * @throws IOException if the connection can't be established
+	 */
+	public OSCStreamPortOut(SocketAddress address, int framing) throws IOException {
+		this.framing = framing;
+		channel = openChannel(address);
+	}
+
+	/**
+	 * Open a connected channel, subclasses can provide other kinds of stream sockets
+	 * @param address  the remote address
+	 * @return the connected blocking channel
+	 */
+	protected SocketChannel openChannel(SocketAddress address) throws IOException {
+		return SocketChannel.open(address);
+	}
+
+	/**
+	 * @param aPacket OSCPacket
+	 */
+	public synchronized void send(OSCPacket aPacket) throws IOException {
+		ByteBuffer buffer = encoder.encode(aPacket);
+		send(buffer.array(), buffer.arrayOffset(), buffer.position());
+	}
+
+	/**
+	 * Send an already encoded packet
+	 * @param bytes   the packet bytes
+	 * @param offset  the start of the packet
+	 * @param length  the length of the packet
+	 */
+	public synchronized void send(byte[] bytes, int offset, int length) throws IOException {
+		int frameLength = OSCStreamFramer.getMaxFrameLength(framing, length);
+		if (frameBuffer.capacity() < frameLength) {
+			int capacity = frameBuffer.capacity();
+			while (capacity < frameLength) capacity <<= 1;
+			frameBuffer = ByteBuffer.allocate(capacity);
+		}
+		frameBuffer.clear();
+		OSCStreamFramer.encode(framing, bytes, offset, length, frameBuffer);
+		frameBuffer.flip();
+		while (frameBuffer.hasRemaining())
+			channel.write(frameBuffer);
+	}
+
+	/**
+	 * @return the framing of this port
+	 */
+	public int getFraming() {
+		return framing;
+	}
+
+	/**
+	 * Close the connection and free-up resources. It's recommended that clients call
+	 * this when they are done with the port.
+	 */
+	public void close() {
+		try {
+			if (channel != null) channel.close();
+		} catch (IOException e) {}
+	}
+
+}
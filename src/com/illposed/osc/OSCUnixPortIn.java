@@ -0,0 +1,145 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ *
+ * OSCUnixPortIn receives OSC packets over Unix domain socket connections,
+ * so a tracker and a client on the same host bypass the IP stack.
+ *
+ * Java only provides Unix domain sockets as streams, so this is an
+ * OSCStreamPortIn that is bound to a socket file instead of a TCP port,
+ * with the same SLIP or length prefix framing. Unix domain sockets
+ * require Java 16 or later, they are looked up at runtime.
+ *
+ * It is used exactly like OSCPortIn:
+
+		receiver = new OSCUnixPortIn("/tmp/tuio.sock");
+		receiver.addListener("/tuio/2Dcur", listener);
+		receiver.startListening();
+
+ */
+
+package com.illposed.osc;
+
+import java.net.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import com.illposed.osc.utility.OSCStreamFramer;
+import com.illposed.osc.utility.OSCThreadFactory;
+
+public class OSCUnixPortIn extends OSCStreamPortIn {
+
+	protected String path;
+
+	/**
+	 * Create an OSCUnixPortIn that accepts SLIP framed connections on a socket file
+	 * @param path  the socket file
+	 * @throws SocketException if the socket can't be bound or Unix domain sockets are not supported
+	 */
+	public OSCUnixPortIn(String path) throws SocketException {
+		this(path, OSCStreamFramer.SLIP);
+	}
+
+	/**
+	 * Create an OSCUnixPortIn that accepts connections on a socket file
+	 * @param path     the socket file
+	 * @param framing  OSCStreamFramer.SLIP or OSCStreamFramer.LENGTH_PREFIX
+	 * @throws SocketException if the socket can't be bound or Unix domain sockets are not supported
+	 */
+	public OSCUnixPortIn(String path, int framing) throws SocketException {
+		super(unixAddress(path), framing, DEFAULT_MAX_PACKET_SIZE);
+		this.path = path;
+	}
+
+	/**
+	 * @return true if this Java runtime supports Unix domain sockets
+	 */
+	public static boolean isSupported() {
+		try {
+			unixAddress("osc.sock");
+			return true;
+		} catch (SocketException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * UnixDomainSocketAddress is only available from Java 16 on, so it is looked up at runtime
+	 * @param path  the socket file
+	 * @return the socket address of the file
+	 * @throws SocketException if Unix domain sockets are not supported
+	 */
+	static SocketAddress unixAddress(String path) throws SocketException {
+		try {
+			Class<?> addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+			return (SocketAddress) addressClass.getMethod("of", String.class).invoke(null, path);
+		} catch (Exception e) {
+			throw new SocketException("Unix domain sockets are not supported by this Java runtime");
+		}
+	}
+
+	/**
+	 * Bind a Unix domain server channel. A socket file that is left over from
+	 * a process that did not close its port is replaced, a socket file that
+	 * still accepts connections is not.
+	 * @see com.illposed.osc.OSCStreamPortIn#openServerChannel(java.net.SocketAddress)
+	 */
+	protected ServerSocketChannel openServerChannel(SocketAddress address) throws IOException {
+		ServerSocketChannel channel;
+		try {
+			ProtocolFamily family = StandardProtocolFamily.valueOf("UNIX");
+			channel = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, family);
+		} catch (Exception e) {
+			throw new IOException("Unix domain sockets are not supported by this Java runtime");
+		}
+		try {
+			channel.bind(address);
+		} catch (BindException e) {
+			File file = new File(address.toString());
+			if (!file.exists() || isAlive(address)) {
+				channel.close();
+				throw e;
+			}
+			file.delete();
+			channel.bind(address);
+		}
+		return channel;
+	}
+
+	private static boolean isAlive(SocketAddress address) {
+		try {
+			SocketChannel.open(address).close();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the executor, by default an OSCThreadFactory for non-daemon threads named after the socket file
+	 */
+	protected Executor getExecutor() {
+		if (executor == null) executor = new OSCThreadFactory("OSCUnixPortIn-" + path);
+		return executor;
+	}
+
+	/**
+	 * @return the socket file
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Close all connections and remove the socket file
+	 */
+	public void close() {
+		super.close();
+		if (path != null) new File(path).delete();
+	}
+
+}
@@ -0,0 +1,54 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ *
+ * OSCUnixPortOut sends OSC packets over a Unix domain socket connection
+ * to an OSCUnixPortIn on the same host. It is an OSCStreamPortOut that
+ * connects to a socket file instead of a TCP port, and requires Java 16.
+ *
+ * It is used like OSCPortOut:
+
+		sender = new OSCUnixPortOut("/tmp/tuio.sock");
+		sender.send(message);
+
+ */
+
+package com.illposed.osc;
+
+import java.io.IOException;
+import com.illposed.osc.utility.OSCStreamFramer;
+
+public class OSCUnixPortOut extends OSCStreamPortOut {
+
+	protected String path;
+
+	/**
+	 * Create an OSCUnixPortOut that sends SLIP framed packets to a socket file
+	 * @param path  the socket file
+	 * @throws IOException if the connection can't be established or Unix domain sockets are not supported
+	 */
+	public OSCUnixPortOut(String path) throws IOException {
+		this(path, OSCStreamFramer.SLIP);
+	}
+
+	/**
+	 * Create an OSCUnixPortOut that sends to a socket file
+	 * @param path     the socket file
+	 * @param framing  OSCStreamFramer.SLIP or OSCStreamFramer.LENGTH_PREFIX
+	 * @throws IOException if the connection can't be established or Unix domain sockets are not supported
+	 */
+	public OSCUnixPortOut(String path, int framing) throws IOException {
+		super(OSCUnixPortIn.unixAddress(path), framing);
+		this.path = path;
+	}
+
+	/**
+	 * @return the socket file
+	 */
+	public String getPath() {
+		return path;
+	}
+
+}
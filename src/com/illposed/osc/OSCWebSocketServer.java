@@ -0,0 +1,511 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ *
+ * OSCWebSocketServer forwards incoming OSC packets to browsers and other
+ * WebSocket clients (RFC 6455). Every packet becomes one binary message
+ * that carries the unmodified OSC bytes, the frame is encoded once and
+ * shared by all connections.
+ *
+ * A single selector thread accepts the connections, answers the opening
+ * handshake, pings and close requests, and writes the queued frames.
+ * Each connection has a bounded queue. When a slow client falls behind,
+ * a new frame replaces the oldest queued frame with the same OSC address,
+ * such as an older bundle of the same TUIO profile, or else the oldest
+ * frame. So the client always receives the most recent state instead of
+ * an ever growing backlog. The handshake response and the control frames
+ * are queued separately and never dropped.
+ *
+ * It is registered as a packet listener with any OSCPortIn:
+
+		server = new OSCWebSocketServer(8080);
+		server.start();
+		receiver.addPacketListener(server);
+
+ */
+
+package com.illposed.osc;
+
+import java.net.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import com.illposed.osc.utility.OSCThreadFactory;
+
+public class OSCWebSocketServer implements OSCPacketListener, Runnable {
+
+	/**
+	 * The default number of frames queued per connection
+	 */
+	public static final int DEFAULT_QUEUE_SIZE = 64;
+
+	private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	private static final int MAX_REQUEST_SIZE = 8192;
+
+	private static final int OPCODE_BINARY = 0x2;
+	private static final int OPCODE_CLOSE = 0x8;
+	private static final int OPCODE_PING = 0x9;
+	private static final int OPCODE_PONG = 0xA;
+
+	/**
+	 * An encoded binary frame shared by all connections
+	 */
+	static final class Frame {
+		final ByteBuffer data;
+		final String address;
+
+		Frame(ByteBuffer data, String address) {
+			this.data = data;
+			this.address = address;
+		}
+	}
+
+	/**
+	 * The state of a single client connection
+	 */
+	static final class Connection {
+		final SocketChannel channel;
+		final ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST_SIZE);
+		// the handshake response and control frames, which are sent first and never dropped
+		final ArrayDeque<ByteBuffer> control = new ArrayDeque<ByteBuffer>();
+		final ArrayDeque<Frame> queue = new ArrayDeque<Frame>();
+		ByteBuffer current;
+		boolean open = false;
+		boolean closing = false;
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	protected ServerSocketChannel serverChannel;
+	protected Selector selector;
+	protected int port;
+	protected int queueSize;
+	protected Executor executor;
+	protected volatile boolean running = false;
+
+	// only changed by the selector thread, read by the packet threads
+	private volatile Connection[] connections = new Connection[0];
+	private final AtomicBoolean wakeupPending = new AtomicBoolean();
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	/**
+	 * Create an OSCWebSocketServer that accepts connections on port
+	 * @param port
+	 * @throws SocketException
+	 */
+	public OSCWebSocketServer(int port) throws SocketException {
+		this(port, DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * Create an OSCWebSocketServer that accepts connections on port
+	 * @param port
+	 * @param queueSize  the number of frames queued for a slow connection before older frames are replaced
+	 * @throws SocketException
+	 */
+	public OSCWebSocketServer(int port, int queueSize) throws SocketException {
+		this.queueSize = Math.max(1, queueSize);
+		try {
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(new InetSocketAddress(port));
+			serverChannel.configureBlocking(false);
+			selector = Selector.open();
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			close();
+			throw new SocketException("could not open WebSocket server on port " + port + ": " + e.getMessage());
+		}
+		this.port = serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Run the selector loop on the given executor instead of a new thread. Has to be set before start.
+	 * @param executor  the executor
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Start accepting connections and forwarding packets
+	 */
+	public void start() {
+		running = true;
+		if (executor == null) executor = new OSCThreadFactory("OSCWebSocketServer-" + port);
+		executor.execute(this);
+	}
+
+	/**
+	 * Stop the selector loop
+	 */
+	public void stop() {
+		running = false;
+		if (selector != null) selector.wakeup();
+	}
+
+	/**
+	 * Queue a packet as binary WebSocket message for all open connections
+	 * @see com.illposed.osc.OSCPacketListener#acceptPacket(byte[], int, int)
+	 */
+	public void acceptPacket(byte[] bytes, int offset, int length) {
+		Connection[] current = connections;
+		if (current.length == 0) return;
+		Frame frame = new Frame(encodeFrame(OPCODE_BINARY, bytes, offset, length), getAddress(bytes, offset, length));
+		boolean queued = false;
+		for (int i = 0; i < current.length; i++) {
+			Connection connection = current[i];
+			synchronized (connection) {
+				if (!connection.open) continue;
+				if (connection.queue.size() >= queueSize) {
+					coalesce(connection.queue, frame.address);
+					droppedCount.incrementAndGet();
+				}
+				connection.queue.add(frame);
+				queued = true;
+			}
+		}
+		if (queued && wakeupPending.compareAndSet(false, true))
+			selector.wakeup();
+	}
+
+	/**
+	 * Remove the oldest queued frame with the same address, so the newer frame
+	 * takes its place, or the oldest frame if there is none
+	 */
+	private static void coalesce(ArrayDeque<Frame> queue, String address) {
+		if (address != null) {
+			Iterator<Frame> frames = queue.iterator();
+			while (frames.hasNext()) {
+				if (address.equals(frames.next().address)) {
+					frames.remove();
+					return;
+				}
+			}
+		}
+		queue.poll();
+	}
+
+	/**
+	 * @return the address of a message, or of the first message in a bundle, such as the TUIO profile
+	 */
+	static String getAddress(byte[] bytes, int offset, int length) {
+		int end = offset + length;
+		// skip "#bundle", the time tag and the element size of nested bundles
+		while ((end - offset >= 20) && (bytes[offset] == '#')) {
+			offset += 20;
+		}
+		if ((offset >= end) || (bytes[offset] != '/')) return null;
+		int i = offset;
+		while ((i < end) && (bytes[i] != 0)) i++;
+		if (i == end) return null;
+		return new String(bytes, offset, i - offset, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * The selector loop
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		while (running) {
+			try {
+				selector.select();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) continue;
+					if (key.isAcceptable()) accept();
+					else {
+						Connection connection = (Connection) key.attachment();
+						if (key.isReadable()) read(key, connection);
+						if (key.isValid() && key.isWritable()) flush(key, connection);
+					}
+				}
+				wakeupPending.set(false);
+				flushAll();
+			} catch (ClosedSelectorException e) {
+				break;
+			} catch (IOException e) {
+				if (running) e.printStackTrace();
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) return;
+		channel.configureBlocking(false);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+		channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+	}
+
+	private void read(SelectionKey key, Connection connection) {
+		try {
+			if (connection.channel.read(connection.in) < 0) {
+				closeConnection(key, connection);
+				return;
+			}
+			connection.in.flip();
+			if (connection.open) readFrames(key, connection);
+			else if (!connection.closing) readHandshake(key, connection);
+			else connection.in.position(connection.in.limit());
+			connection.in.compact();
+			if (!connection.in.hasRemaining()) {
+				// neither a complete request nor a complete frame fits
+				closeConnection(key, connection);
+			}
+		} catch (IOException e) {
+			closeConnection(key, connection);
+		}
+	}
+
+	private void readHandshake(SelectionKey key, Connection connection) throws IOException {
+		ByteBuffer in = connection.in;
+		int end = -1;
+		for (int i = in.position(); i + 3 < in.limit(); i++) {
+			if ((in.get(i) == '\r') && (in.get(i + 1) == '\n') && (in.get(i + 2) == '\r') && (in.get(i + 3) == '\n')) {
+				end = i + 4;
+				break;
+			}
+		}
+		if (end < 0) return;
+		byte[] request = new byte[end - in.position()];
+		in.get(request);
+		String webSocketKey = null;
+		boolean upgrade = false;
+		String[] lines = new String(request, "ISO-8859-1").split("\r\n");
+		for (int i = 1; i < lines.length; i++) {
+			int colon = lines[i].indexOf(':');
+			if (colon < 0) continue;
+			String name = lines[i].substring(0, colon).trim();
+			String value = lines[i].substring(colon + 1).trim();
+			if (name.equalsIgnoreCase("Sec-WebSocket-Key")) webSocketKey = value;
+			else if (name.equalsIgnoreCase("Upgrade")) upgrade = value.equalsIgnoreCase("websocket");
+		}
+		String response;
+		if ((webSocketKey == null) || !upgrade || !lines[0].startsWith("GET ")) {
+			response = "HTTP/1.1 400 Bad Request\r\nConnection: close\r\nContent-Length: 0\r\n\r\n";
+			connection.closing = true;
+		} else {
+			response = "HTTP/1.1 101 Switching Protocols\r\n"
+				+ "Upgrade: websocket\r\n"
+				+ "Connection: Upgrade\r\n"
+				+ "Sec-WebSocket-Accept: " + acceptKey(webSocketKey) + "\r\n\r\n";
+		}
+		synchronized (connection) {
+			connection.control.add(ByteBuffer.wrap(response.getBytes("ISO-8859-1")));
+			connection.open = !connection.closing;
+		}
+		if (connection.open) connections = with(connections, connection);
+		flush(key, connection);
+	}
+
+	private void readFrames(SelectionKey key, Connection connection) throws IOException {
+		ByteBuffer in = connection.in;
+		while (in.remaining() >= 2) {
+			int start = in.position();
+			int opcode = in.get(start) & 0x0F;
+			int second = in.get(start + 1) & 0xFF;
+			boolean masked = (second & 0x80) != 0;
+			long length = second & 0x7F;
+			int header = 2;
+			if (length == 126) {
+				if (in.remaining() < 4) return;
+				length = in.getShort(start + 2) & 0xFFFF;
+				header = 4;
+			} else if (length == 127) {
+				if (in.remaining() < 10) return;
+				length = in.getLong(start + 2);
+				header = 10;
+			}
+			if (masked) header += 4;
+			if ((length < 0) || (header + length > in.capacity()))
+				throw new IOException("WebSocket frame exceeds " + in.capacity() + " bytes");
+			if (in.remaining() < header + length) return;
+			byte[] payload = new byte[(int) length];
+			for (int i = 0; i < payload.length; i++) {
+				byte b = in.get(start + header + i);
+				if (masked) b ^= in.get(start + header - 4 + (i & 3));
+				payload[i] = b;
+			}
+			in.position(start + header + (int) length);
+			if (opcode == OPCODE_CLOSE) {
+				// nothing may follow the close frame
+				synchronized (connection) {
+					connection.queue.clear();
+					connection.control.add(encodeFrame(OPCODE_CLOSE, payload, 0, Math.min(payload.length, 2)));
+					connection.open = false;
+					connection.closing = true;
+				}
+			} else if ((opcode == OPCODE_PING) && !connection.closing) {
+				synchronized (connection) {
+					connection.control.add(encodeFrame(OPCODE_PONG, payload, 0, payload.length));
+				}
+			}
+			// messages from the clients are not forwarded
+		}
+		flush(key, connection);
+	}
+
+	private void flushAll() {
+		Connection[] current = connections;
+		for (int i = 0; i < current.length; i++) {
+			SelectionKey key = current[i].channel.keyFor(selector);
+			if ((key != null) && key.isValid()) flush(key, current[i]);
+		}
+	}
+
+	private void flush(SelectionKey key, Connection connection) {
+		try {
+			while (true) {
+				if (connection.current == null) {
+					synchronized (connection) {
+						// a control frame waits for the current frame, but goes before the queued ones
+						connection.current = connection.control.poll();
+						if (connection.current == null) {
+							Frame frame = connection.queue.poll();
+							if (frame != null) connection.current = frame.data.duplicate();
+						}
+					}
+					if (connection.current == null) break;
+				}
+				connection.channel.write(connection.current);
+				if (connection.current.hasRemaining()) {
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+				connection.current = null;
+			}
+			if (connection.closing) closeConnection(key, connection);
+			else key.interestOps(SelectionKey.OP_READ);
+		} catch (IOException e) {
+			closeConnection(key, connection);
+		}
+	}
+
+	private void closeConnection(SelectionKey key, Connection connection) {
+		synchronized (connection) {
+			connection.open = false;
+			connection.control.clear();
+			connection.queue.clear();
+		}
+		connections = without(connections, connection);
+		key.cancel();
+		try {
+			connection.channel.close();
+		} catch (IOException e) {}
+	}
+
+	private static Connection[] with(Connection[] connections, Connection connection) {
+		Connection[] result = new Connection[connections.length + 1];
+		System.arraycopy(connections, 0, result, 0, connections.length);
+		result[connections.length] = connection;
+		return result;
+	}
+
+	private static Connection[] without(Connection[] connections, Connection connection) {
+		for (int i = 0; i < connections.length; i++) {
+			if (connections[i] != connection) continue;
+			Connection[] result = new Connection[connections.length - 1];
+			System.arraycopy(connections, 0, result, 0, i);
+			System.arraycopy(connections, i + 1, result, i, result.length - i);
+			return result;
+		}
+		return connections;
+	}
+
+	/**
+	 * Encode an unmasked, unfragmented server frame
+	 */
+	static ByteBuffer encodeFrame(int opcode, byte[] bytes, int offset, int length) {
+		int header = (length < 126) ? 2 : ((length < 65536) ? 4 : 10);
+		ByteBuffer frame = ByteBuffer.allocate(header + length);
+		frame.put((byte) (0x80 | opcode));
+		if (length < 126) {
+			frame.put((byte) length);
+		} else if (length < 65536) {
+			frame.put((byte) 126);
+			frame.putShort((short) length);
+		} else {
+			frame.put((byte) 127);
+			frame.putLong(length);
+		}
+		frame.put(bytes, offset, length);
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * @return the Sec-WebSocket-Accept value for a Sec-WebSocket-Key
+	 */
+	static String acceptKey(String key) throws IOException {
+		try {
+			MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+			byte[] digest = sha1.digest((key + GUID).getBytes("ISO-8859-1"));
+			return Base64.getEncoder().encodeToString(digest);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-1 is not available");
+		}
+	}
+
+	/**
+	 * @return the number of clients that completed the handshake
+	 */
+	public int getClientCount() {
+		return connections.length;
+	}
+
+	/**
+	 * @return the number of frames dropped or replaced for slow clients
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return the port the server accepts connections on
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Close all connections and the server channel
+	 */
+	public void close() {
+		running = false;
+		if (selector != null) {
+			try {
+				for (SelectionKey key : selector.keys()) {
+					try {
+						key.channel().close();
+					} catch (IOException e) {}
+				}
+				selector.close();
+			} catch (ClosedSelectorException e) {
+			} catch (IOException e) {}
+		}
+		try {
+			if (serverChannel != null) serverChannel.close();
+		} catch (IOException e) {}
+		connections = new Connection[0];
+	}
+
+}
@@ -0,0 +1,182 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ * An immutable open addressing hash table from OSC addresses to their
+ * listeners. The table is looked up with the raw ASCII address bytes
+ * of an OSCMessageView, so no address String needs to be created.
+ *
+ * Every registration creates a new table, so the OSCPacketDispatcher
+ * can publish it through a volatile field and the receive thread can
+ * look it up without any locking. The same table type is used for
+ * pattern registrations and for caching the resolved pattern matches.
+ */
+
+package com.illposed.osc.utility;
+
+import com.illposed.osc.*;
+
+import java.util.Arrays;
+
+class OSCAddressTable {
+
+	static final OSCListener[] NO_LISTENERS = new OSCListener[0];
+	static final OSCMessageViewListener[] NO_VIEW_LISTENERS = new OSCMessageViewListener[0];
+
+	/**
+	 * All listeners registered for a single address
+	 */
+	static final class Entry {
+		final byte[] address;
+		final int hash;
+		final OSCListener[] listeners;
+		final OSCMessageViewListener[] viewListeners;
+		final OSCPatternMatcher matcher;
+
+		Entry(byte[] address, int hash, OSCListener[] listeners, OSCMessageViewListener[] viewListeners, OSCPatternMatcher matcher) {
+			this.address = address;
+			this.hash = hash;
+			this.listeners = listeners;
+			this.viewListeners = viewListeners;
+			this.matcher = matcher;
+		}
+
+		boolean isEmpty() {
+			return (listeners.length == 0) && (viewListeners.length == 0);
+		}
+	}
+
+	private final Entry[] slots;
+	private final int size;
+
+	OSCAddressTable() {
+		this(new Entry[8], 0);
+	}
+
+	private OSCAddressTable(Entry[] slots, int size) {
+		this.slots = slots;
+		this.size = size;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the entry for the address of the view or null
+	 */
+	Entry get(OSCMessageView view) {
+		int length = view.getAddressLength();
+		int hash = 1;
+		for (int i = 0; i < length; i++)
+			hash = 31 * hash + view.getAddressByte(i);
+		int mask = slots.length - 1;
+		for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+			Entry entry = slots[i];
+			if (entry == null) return null;
+			if ((entry.hash == hash) && view.addressEquals(entry.address)) return entry;
+		}
+	}
+
+	/**
+	 * @return the entry for the ASCII address or null
+	 */
+	Entry get(String address) {
+		int length = address.length();
+		int hash = 1;
+		for (int i = 0; i < length; i++)
+			hash = 31 * hash + (byte) address.charAt(i);
+		int mask = slots.length - 1;
+		for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+			Entry entry = slots[i];
+			if (entry == null) return null;
+			if ((entry.hash == hash) && equals(entry.address, address)) return entry;
+		}
+	}
+
+	/**
+	 * @return the entry for the address bytes or null
+	 */
+	Entry get(byte[] address) {
+		int hash = hash(address);
+		int mask = slots.length - 1;
+		for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+			Entry entry = slots[i];
+			if (entry == null) return null;
+			if ((entry.hash == hash) && Arrays.equals(entry.address, address)) return entry;
+		}
+	}
+
+	/**
+	 * @return a copy of this table with the entry for its address replaced,
+	 *         or removed if the entry has no listeners left
+	 */
+	OSCAddressTable with(Entry replacement) {
+		return copyWith(replacement, false);
+	}
+
+	/**
+	 * @return a copy of this table with the entry for its address replaced,
+	 *         empty entries are kept to remember addresses without listeners
+	 */
+	OSCAddressTable withCached(Entry replacement) {
+		return copyWith(replacement, true);
+	}
+
+	private OSCAddressTable copyWith(Entry replacement, boolean keepEmpty) {
+		boolean keep = keepEmpty || !replacement.isEmpty();
+		int count = size;
+		if (get(replacement.address) != null) count--;
+		if (keep) count++;
+		int capacity = 8;
+		while (capacity < 2 * count) capacity <<= 1;
+		Entry[] copy = new Entry[capacity];
+		for (int i = 0; i < slots.length; i++) {
+			Entry entry = slots[i];
+			if ((entry != null) && !Arrays.equals(entry.address, replacement.address))
+				insert(copy, entry);
+		}
+		if (keep) insert(copy, replacement);
+		return new OSCAddressTable(copy, count);
+	}
+
+	/**
+	 * @return all entries of this table
+	 */
+	Entry[] entries() {
+		Entry[] entries = new Entry[size];
+		int count = 0;
+		for (int i = 0; i < slots.length; i++) {
+			if (slots[i] != null) entries[count++] = slots[i];
+		}
+		return entries;
+	}
+
+	private static void insert(Entry[] slots, Entry entry) {
+		int mask = slots.length - 1;
+		int i = spread(entry.hash) & mask;
+		while (slots[i] != null) i = (i + 1) & mask;
+		slots[i] = entry;
+	}
+
+	static int hash(byte[] address) {
+		int hash = 1;
+		for (int i = 0; i < address.length; i++)
+			hash = 31 * hash + address[i];
+		return hash;
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean equals(byte[] bytes, String address) {
+		if (bytes.length != address.length()) return false;
+		for (int i = 0; i < bytes.length; i++) {
+			if (bytes[i] != (byte) address.charAt(i)) return false;
+		}
+		return true;
+	}
+
+}
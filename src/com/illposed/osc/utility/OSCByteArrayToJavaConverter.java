@@ -3,8 +3,9 @@
  */
 package com.illposed.osc.utility;
 
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Date;
+import java.util.Vector;
 
 import com.illposed.osc.*;
 
@@ -15,18 +16,38 @@ import com.illposed.osc.*;
  * All rights reserved.
  * 
  * See license.txt (or license.rtf) for license information.
+ *
+ * All OSC 1.1 argument types are converted: i and r to Integer, h to Long,
+ * f to Float, d to Double, s and S to String, c to Character, b to a
+ * ByteBuffer slice of the converted bytes, t to Date, m to byte[4],
+ * T and F to Boolean, N to null, I to OSCImpulse and [...] to Object[].
  */
 public class OSCByteArrayToJavaConverter {
 
 	byte[] bytes;
 	int bytesLength;
+	int startPosition;
 	int streamPosition;
 
 	private byte[] intBytes   = new byte[4];
 	private byte[] floatBytes = new byte[4];
 
-	private	byte[] secondBytes = new byte[8];
-	private	byte[] picosecBytes = new byte[8];
+	/**
+	 * The maximum number of idle messages and bundles kept for reuse
+	 */
+	public static final int POOL_SIZE = 64;
+
+	// the recycled packets, only used by the thread owning this converter
+	private boolean recycling = false;
+	private boolean debugRecycling = false;
+	private OSCMessage[] messagePool = new OSCMessage[POOL_SIZE];
+	private int messageCount = 0;
+	private OSCBundle[] bundlePool = new OSCBundle[POOL_SIZE];
+	private int bundleCount = 0;
+
+	// the currently open (nested) bundles and their end positions
+	private OSCBundle[] bundleStack = new OSCBundle[4];
+	private int[] bundleEnds = new int[4];
 
 	/**
 	 * Helper object for converting from a byte array to Java objects
@@ -36,9 +57,78 @@ public class OSCByteArrayToJavaConverter {
 	}*/
 
 	public OSCPacket convert(byte[] byteArray, int bytesLength) {
+		return convert(byteArray, 0, bytesLength);
+	}
+
+	/**
+	 * In recycling mode, converted messages and bundles are taken from a pool
+	 * and have to be given back with release() once they are not used anymore.
+	 * @param recycling  true to reuse released packets
+	 */
+	public void setRecycling(boolean recycling) {
+		this.recycling = recycling;
+	}
+
+	/**
+	 * @return true if released packets are reused
+	 */
+	public boolean isRecycling() {
+		return recycling;
+	}
+
+	/**
+	 * In debug mode, released packets are only marked as released and never reused,
+	 * so any later access by a listener that kept a reference fails with an
+	 * IllegalStateException instead of silently reading the content of another packet.
+	 * @param debugRecycling  true to detect retained packets
+	 */
+	public void setDebugRecycling(boolean debugRecycling) {
+		this.debugRecycling = debugRecycling;
+	}
+
+	/**
+	 * @return true if released packets are marked instead of reused
+	 */
+	public boolean isDebugRecycling() {
+		return debugRecycling;
+	}
+
+	/**
+	 * Give a converted packet and all packets it contains back to the pool.
+	 * Has no effect unless this converter is in recycling mode.
+	 * @param packet  a packet that was returned by convert()
+	 */
+	public void release(OSCPacket packet) {
+		if (!recycling || (null == packet) || packet.isReleased())
+			return;
+		if (packet instanceof OSCBundle) {
+			OSCPacket[] packets = ((OSCBundle) packet).getPackets();
+			for (int i = 0; i < packets.length; i++)
+				release(packets[i]);
+		}
+		if (!debugRecycling) {
+			packet.reset();
+			if ((packet instanceof OSCMessage) && (messageCount < POOL_SIZE))
+				messagePool[messageCount++] = (OSCMessage) packet;
+			else if ((packet instanceof OSCBundle) && (bundleCount < POOL_SIZE))
+				bundlePool[bundleCount++] = (OSCBundle) packet;
+		}
+		packet.setReleased(true);
+	}
+
+	/**
+	 * Convert the packet at offset within the byte array,
+	 * so bundle elements and batched datagrams need not be copied first
+	 * @param byteArray  the receive buffer
+	 * @param offset     the start of the packet
+	 * @param length     the length of the packet
+	 * @return the converted OSCPacket
+	 */
+	public OSCPacket convert(byte[] byteArray, int offset, int length) {
 		bytes = byteArray;
-		this.bytesLength = bytesLength;
-		streamPosition = 0;
+		startPosition = offset;
+		this.bytesLength = offset + length;
+		streamPosition = offset;
 		if (isBundle())
 			return convertBundle();
 		else
@@ -46,34 +136,83 @@ public class OSCByteArrayToJavaConverter {
 	}
 
 	private boolean isBundle() {
-		// only need the first 7 to check if it is a bundle
-		String bytesAsString = new String(bytes, 0, 7);
-		return bytesAsString.startsWith("#bundle");
-	}                               
-                               
+		// only need the first 8 to check if it is a bundle
+		return OSCMessageView.isBundle(bytes, startPosition, bytesLength - startPosition);
+	}
+
+	/**
+	 * Converts a bundle and all nested bundles in a single pass over the buffer.
+	 * Elements are read as slices of the original bytes, nested bundles are
+	 * tracked on an explicit stack instead of recursing into new converters.
+	 */
 	private OSCBundle convertBundle() {
+		int packetEnd = bytesLength;
+		OSCBundle root = readBundleHeader();
+		int depth = 0;
+		depth = pushBundle(depth, root, packetEnd);
+		while (depth > 0) {
+			OSCBundle bundle = bundleStack[depth - 1];
+			int bundleEnd = bundleEnds[depth - 1];
+			if (streamPosition + 4 > bundleEnd) {
+				streamPosition = bundleEnd;
+				bundleStack[--depth] = null;
+				continue;
+			}
+			int packetLength = readIntBits();
+			int packetStart = streamPosition;
+			packetEnd = packetStart + packetLength;
+			if ((packetLength < 0) || (packetEnd > bundleEnd))
+				throw new IllegalArgumentException("malformed OSC bundle");
+			startPosition = packetStart;
+			if (OSCMessageView.isBundle(bytes, packetStart, packetLength)) {
+				OSCBundle nested = readBundleHeader();
+				bundle.addPacket(nested);
+				depth = pushBundle(depth, nested, packetEnd);
+			} else {
+				bundle.addPacket(convertMessage());
+				streamPosition = packetEnd;
+			}
+		}
+		return root;
+	}
+
+	private OSCBundle readBundleHeader() {
 		// skip the "#bundle " stuff
-		streamPosition = 8;
-		Date timestamp = readTimeTag();
-		OSCBundle bundle = new OSCBundle(timestamp);
-		OSCByteArrayToJavaConverter myConverter = new OSCByteArrayToJavaConverter();
-		while (streamPosition < bytesLength) {
-			// recursively read through the stream and convert packets you find
-			int packetLength = ((Integer) readInteger()).intValue();
-			byte[] packetBytes = new byte[packetLength];
-			//streamPosition++;
-			System.arraycopy(bytes,streamPosition,packetBytes,0,packetLength);
-			streamPosition+=packetLength;
-			//for (int i = 0; i < packetLength; i++)
-			//	packetBytes[i] = bytes[streamPosition++];
-			OSCPacket packet = myConverter.convert(packetBytes, packetLength);
-			bundle.addPacket(packet);
+		streamPosition = startPosition + 8;
+		long secsSince1900 = readIntBits() & 0xFFFFFFFFL;
+		long timeTag = (secsSince1900 << 32) | (readIntBits() & 0xFFFFFFFFL);
+		if (recycling && (bundleCount > 0)) {
+			OSCBundle bundle = bundlePool[--bundleCount];
+			bundlePool[bundleCount] = null;
+			bundle.setReleased(false);
+			bundle.setTimeTag(timeTag);
+			return bundle;
 		}
-		return bundle;
+		return new OSCBundle(timeTag);
+	}
+
+	private int pushBundle(int depth, OSCBundle bundle, int bundleEnd) {
+		if (depth == bundleStack.length) {
+			OSCBundle[] stack = new OSCBundle[2 * depth];
+			System.arraycopy(bundleStack, 0, stack, 0, depth);
+			bundleStack = stack;
+			int[] ends = new int[2 * depth];
+			System.arraycopy(bundleEnds, 0, ends, 0, depth);
+			bundleEnds = ends;
+		}
+		bundleStack[depth] = bundle;
+		bundleEnds[depth] = bundleEnd;
+		return depth + 1;
 	}
 
 	private OSCMessage convertMessage() {
-		OSCMessage message = new OSCMessage();
+		OSCMessage message;
+		if (recycling && (messageCount > 0)) {
+			message = messagePool[--messageCount];
+			messagePool[messageCount] = null;
+			message.setReleased(false);
+		} else
+			message = new OSCMessage();
 		message.setAddress(readString());
 		char[] types = readTypes();
 		if (null == types) {
@@ -81,15 +220,18 @@ public class OSCByteArrayToJavaConverter {
 			return message;
 		}
 		moveToFourByteBoundry();
-		for (int i = 0; i < types.length; i++) {
+		int i = 0;
+		while (i < types.length) {
 			if ('[' == types[i]) {
 				// we're looking at an array -- read it in
-				message.addArgument(readArray(types, i));
-				// then increment i to the end of the array
-				while (']' != types[i])
-					i++;
+				Vector<Object> array = new Vector<Object>();
+				i = readArray(types, i + 1, array);
+				message.addArgument(array.toArray());
+			} else if (']' == types[i]) {
+				// unbalanced end of array
+				i++;
 			} else
-				message.addArgument(readArgument(types[i]));
+				message.addArgument(readArgument(types[i++]));
 		}
 		return message;
 	}
@@ -110,7 +252,7 @@ public class OSCByteArrayToJavaConverter {
 	 */
 	private char[] readTypes() {
 		// the next byte should be a ","
-		if (bytes[streamPosition] != 0x2C)
+		if ((streamPosition >= bytesLength) || (bytes[streamPosition] != 0x2C))
 			return null;
 		streamPosition++;
 		// find out how long the list of types is
@@ -133,38 +275,88 @@ public class OSCByteArrayToJavaConverter {
 	private Object readArgument(char c) {
 		switch (c) {
 			case 'i' :
+			case 'r' :
 				return readInteger();
 			case 'h' :
-				return readBigInteger();
+				return readLong();
 			case 'f' :
 				return readFloat();
 			case 'd' :
 				return readDouble();
 			case 's' :
+			case 'S' :
 				return readString();
 			case 'c' :
 				return readChar();
+			case 'b' :
+				return readBlob();
+			case 't' :
+				return readTimeTag();
+			case 'm' :
+				return readMidi();
 			case 'T' :
 				return Boolean.TRUE;
 			case 'F' :
 				return Boolean.FALSE;
+			case 'N' :
+				return null;
+			case 'I' :
+				return OSCImpulse.INSTANCE;
 		}
-
-		return null;
+		// the size of an unknown type is unknown, so the rest can not be read
+		throw new IllegalArgumentException("unknown OSC type tag '" + c + "'");
 	}
 
 	/**
-	 * @return a Character
+	 * @return a Character, sent as 32 bits
 	 */
 	private Object readChar() {
-		return Character.valueOf((char) bytes[streamPosition++]);
+		int charBits = readIntBits();
+		return Character.valueOf((char) (charBits & 0xFF));
 	}
 
 	/**
 	 * @return a Double
 	 */
 	private Object readDouble() {
-		return readFloat();
+		return Double.valueOf(Double.longBitsToDouble(readLongBits()));
+	}
+
+	/**
+	 * @return a Long
+	 */
+	private Object readLong() {
+		return Long.valueOf(readLongBits());
+	}
+
+	private long readLongBits() {
+		long high = readIntBits();
+		long low = readIntBits() & 0xFFFFFFFFL;
+		return (high << 32) | low;
+	}
+
+	/**
+	 * The blob is not copied, the returned buffer is a slice of the
+	 * bytes that are converted and only valid as long as these are.
+	 * @return a ByteBuffer
+	 */
+	private Object readBlob() {
+		int blobLength = readIntBits();
+		if ((blobLength < 0) || (streamPosition + blobLength > bytesLength))
+			throw new IllegalArgumentException("malformed OSC blob");
+		ByteBuffer blob = ByteBuffer.wrap(bytes, streamPosition, blobLength).slice();
+		streamPosition += (blobLength + 3) & ~3;
+		return blob;
+	}
+
+	/**
+	 * @return a byte array with port id, status byte, data1 and data2
+	 */
+	private Object readMidi() {
+		byte[] midi = new byte[4];
+		System.arraycopy(bytes, streamPosition, midi, 0, 4);
+		streamPosition += 4;
+		return midi;
 	}
 
 	/**
@@ -186,29 +378,14 @@ public class OSCByteArrayToJavaConverter {
 		return Float.valueOf(Float.intBitsToFloat(floatBits));
 	}
 
-	/**
-	 * @return a BigInteger
-	 */
-	private Object readBigInteger() {
-		//byte[] intBytes = new byte[4];
-		intBytes[0] = bytes[streamPosition++];
-		intBytes[1] = bytes[streamPosition++];
-		intBytes[2] = bytes[streamPosition++];
-		intBytes[3] = bytes[streamPosition++];
-
-		int intBits = 
-			((intBytes[3] & 0xFF) ) +
-			((intBytes[2] & 0xFF) << 8) +
-			((intBytes[1] & 0xFF) << 16) +
-			((intBytes[0] & 0xFF) << 24);
-		
-		return Integer.valueOf(intBits);
-	}
-
 	/**
 	 * @return an Integer
 	 */
 	private Object readInteger() {
+		return Integer.valueOf(readIntBits());
+	}
+
+	private int readIntBits() {
 		//byte[] intBytes = new byte[4];
 		intBytes[0] = bytes[streamPosition++];
 		intBytes[1] = bytes[streamPosition++];
@@ -221,46 +398,48 @@ public class OSCByteArrayToJavaConverter {
 			((intBytes[1] & 0xFF) << 16) +
 			((intBytes[0] & 0xFF) << 24);
 
-		return Integer.valueOf(intBits);		
+		return intBits;
 	}
 	
 	/**
 	 * @return a Date
 	 */
 	private Date readTimeTag() {
-		//byte[] secondBytes = new byte[8];
-		//byte[] picosecBytes = new byte[8];
-		/*for (int i = 4; i < 8; i++)
-			secondBytes[i] = bytes[streamPosition++];
-		for (int i = 4; i < 8; i++)
-			picosecBytes[i] = bytes[streamPosition++];*/
-		System.arraycopy(bytes,streamPosition,secondBytes,4,4);
-		streamPosition+=4;
-		System.arraycopy(bytes,streamPosition,picosecBytes,4,4);
-		streamPosition+=4;
-		
-		BigInteger secsSince1900 = new BigInteger(secondBytes);
-		long secsSince1970 =  secsSince1900.longValue() - OSCBundle.SECONDS_FROM_1900_to_1970.longValue();
+		long secsSince1900 = readIntBits() & 0xFFFFFFFFL;
+		long picosecs = readIntBits() & 0xFFFFFFFFL;
+		return timeTagToDate((secsSince1900 << 32) | picosecs);
+	}
+
+	/**
+	 * Convert a raw 64 bit OSC time tag into a Date
+	 * @param timeTag  the seconds since 1900 in the upper and the fraction in the lower 32 bits
+	 * @return a Date
+	 */
+	public static Date timeTagToDate(long timeTag) {
+		long secsSince1970 = (timeTag >>> 32) - OSCBundle.SECONDS_FROM_1900_to_1970.longValue();
 		if (secsSince1970 < 0) secsSince1970 = 0; // no point maintaining times in the distant past
-		BigInteger picosecs = new BigInteger(picosecBytes);
-		long millisecs = (secsSince1970 * 1000) + (picosecs.longValue() / 1000);
+		long picosecs = timeTag & 0xFFFFFFFFL;
+		long millisecs = (secsSince1970 * 1000) + (picosecs / 1000);
 		return new Date(millisecs);
 	}
 
 	/**
-	 * @param types
-	 * @param i
-	 * @return an Array
+	 * Read the arguments of an array up to its closing bracket
+	 * @param types  the type tags
+	 * @param i      the index of the first type within the array
+	 * @param array  the array content
+	 * @return the index after the closing bracket
 	 */
-	private Object[] readArray(char[] types, int i) {
-		int arrayLen = 0;
-		while (types[i + arrayLen] != ']')
-			arrayLen++;
-		Object[] array = new Object[arrayLen];
-		for (int j = 0; i < arrayLen; j++) {
-			array[j] = readArgument(types[i + j]);
+	private int readArray(char[] types, int i, Vector<Object> array) {
+		while ((i < types.length) && (']' != types[i])) {
+			if ('[' == types[i]) {
+				Vector<Object> nested = new Vector<Object>();
+				i = readArray(types, i + 1, nested);
+				array.addElement(nested.toArray());
+			} else
+				array.addElement(readArgument(types[i++]));
 		}
-		return array;
+		return i + 1;
 	}
 
 	private int lengthOfCurrentString() {
@@ -272,7 +451,7 @@ public class OSCByteArrayToJavaConverter {
 
 	private void moveToFourByteBoundry() {
 		// If i'm already at a 4 byte boundry, I need to move to the next one
-		int mod = streamPosition % 4;
+		int mod = (streamPosition - startPosition) % 4;
 		streamPosition += (4 - mod);
 	}
 
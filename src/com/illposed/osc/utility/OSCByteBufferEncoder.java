@@ -0,0 +1,346 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ * OSCByteBufferEncoder writes OSC data directly into a ByteBuffer, which
+ * can be a heap or a direct buffer supplied by the caller and reused for
+ * every packet. Apart from the getBytes() encoding of new strings, which
+ * is cached, encoding does not allocate anything.
+ *
+ * A message is written as its address, its type tag string and then its
+ * arguments, for example a TUIO cursor set message:
+
+		encoder.setBuffer(buffer);
+		encoder.writeString("/tuio/2Dcur");
+		encoder.writeString(",sifffff");
+		encoder.writeString("set");
+		encoder.writeInt(sessionID);
+		encoder.writeFloat(x);
+		...
+
+ * When the encoder is created without a buffer, it owns a heap buffer
+ * that grows as needed. A caller supplied buffer never grows, writing
+ * beyond its limit throws a BufferOverflowException.
+ */
+
+package com.illposed.osc.utility;
+
+import com.illposed.osc.*;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+public class OSCByteBufferEncoder {
+
+	/**
+	 * The maximum number of strings whose getBytes() encoding is cached
+	 */
+	public static final int STRING_CACHE_SIZE = 1024;
+
+	private ByteBuffer buffer;
+	private boolean growable;
+	private final HashMap<String, byte[]> stringCache = new HashMap<String, byte[]>();
+
+	/**
+	 * Create an encoder with its own growing heap buffer
+	 */
+	public OSCByteBufferEncoder() {
+		this(1024);
+	}
+
+	/**
+	 * Create an encoder with its own growing heap buffer
+	 * @param initialCapacity  the initial buffer size
+	 */
+	public OSCByteBufferEncoder(int initialCapacity) {
+		buffer = ByteBuffer.allocate(Math.max(16, initialCapacity));
+		growable = true;
+	}
+
+	/**
+	 * Create an encoder that writes into the caller's buffer
+	 * @param buffer  a heap or direct buffer, written from its position
+	 */
+	public OSCByteBufferEncoder(ByteBuffer buffer) {
+		setBuffer(buffer);
+	}
+
+	/**
+	 * Continue writing into the caller's buffer, from its position
+	 * @param buffer  a heap or direct buffer
+	 */
+	public void setBuffer(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.buffer.order(ByteOrder.BIG_ENDIAN);
+		growable = false;
+	}
+
+	/**
+	 * @return the buffer, its position is the end of the written data
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Start writing a new packet at the beginning of the buffer
+	 */
+	public void clear() {
+		buffer.clear();
+	}
+
+	/**
+	 * Encode a packet at the beginning of the buffer, replacing the previous one
+	 * @param packet  the message or bundle
+	 * @return the buffer, the packet ends at its position
+	 */
+	public ByteBuffer encode(OSCPacket packet) {
+		buffer.clear();
+		packet.encode(this);
+		return buffer;
+	}
+
+	/**
+	 * @return a copy of the bytes written since the beginning of the buffer
+	 */
+	public byte[] toByteArray() {
+		byte[] bytes = new byte[buffer.position()];
+		ByteBuffer written = buffer.duplicate();
+		written.flip();
+		written.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * @return the current write position
+	 */
+	public int position() {
+		return buffer.position();
+	}
+
+	/**
+	 * Make sure that count more bytes can be written
+	 */
+	private void ensure(int count) {
+		if (!growable || (buffer.remaining() >= count)) return;
+		int capacity = buffer.capacity();
+		while (capacity - buffer.position() < count) capacity <<= 1;
+		ByteBuffer grown = ByteBuffer.allocate(capacity);
+		buffer.flip();
+		grown.put(buffer);
+		buffer = grown;
+	}
+
+	/**
+	 * Write a 32 bit integer
+	 */
+	public void writeInt(int value) {
+		ensure(4);
+		buffer.putInt(value);
+	}
+
+	/**
+	 * Write a 32 bit integer at an absolute position, such as a size that is only known afterwards
+	 */
+	public void writeInt(int position, int value) {
+		buffer.putInt(position, value);
+	}
+
+	/**
+	 * Write a 32 bit float
+	 */
+	public void writeFloat(float value) {
+		ensure(4);
+		buffer.putFloat(value);
+	}
+
+	/**
+	 * Write a 64 bit integer
+	 */
+	public void writeLong(long value) {
+		ensure(8);
+		buffer.putLong(value);
+	}
+
+	/**
+	 * Write a 64 bit double
+	 */
+	public void writeDouble(double value) {
+		ensure(8);
+		buffer.putDouble(value);
+	}
+
+	/**
+	 * Write a raw 64 bit NTP time tag
+	 * @param timeTag  the seconds since 1900 in the upper and the fraction in the lower 32 bits
+	 */
+	public void writeTimeTag(long timeTag) {
+		writeLong(timeTag);
+	}
+
+	/**
+	 * Write a character as 32 bits
+	 */
+	public void writeChar(char c) {
+		writeInt(c);
+	}
+
+	/**
+	 * Write a null terminated string padded to four bytes,
+	 * the encoded bytes of frequently used strings are cached
+	 */
+	public void writeString(String string) {
+		byte[] bytes = stringCache.get(string);
+		if (bytes == null) {
+			// the same bytes as OSCJavaToByteArrayConverter writes
+			bytes = string.getBytes();
+			if (stringCache.size() >= STRING_CACHE_SIZE) stringCache.clear();
+			stringCache.put(string, bytes);
+		}
+		writeString(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Write the encoded bytes of a string, null terminated and padded to four bytes
+	 */
+	public void writeString(byte[] bytes, int offset, int length) {
+		int pad = 4 - (length & 3);
+		ensure(length + pad);
+		buffer.put(bytes, offset, length);
+		for (int i = 0; i < pad; i++)
+			buffer.put((byte) 0);
+	}
+
+	/**
+	 * Write a blob, its size followed by the bytes padded to four bytes
+	 */
+	public void writeBlob(byte[] bytes, int offset, int length) {
+		int pad = (4 - (length & 3)) & 3;
+		ensure(4 + length + pad);
+		buffer.putInt(length);
+		buffer.put(bytes, offset, length);
+		for (int i = 0; i < pad; i++)
+			buffer.put((byte) 0);
+	}
+
+	/**
+	 * Write the remaining bytes of a buffer as blob, without changing its position
+	 */
+	public void writeBlob(ByteBuffer blob) {
+		int length = blob.remaining();
+		int pad = (4 - (length & 3)) & 3;
+		ensure(4 + length + pad);
+		buffer.putInt(length);
+		buffer.put(blob.duplicate());
+		for (int i = 0; i < pad; i++)
+			buffer.put((byte) 0);
+	}
+
+	/**
+	 * Write bytes that are already encoded
+	 */
+	public void writeBytes(byte[] bytes, int offset, int length) {
+		ensure(length);
+		buffer.put(bytes, offset, length);
+	}
+
+	/**
+	 * Write the type tag string for a list of arguments
+	 * @param arguments  the arguments, Object[] elements are written as arrays
+	 */
+	public void writeTypeTags(List<Object> arguments) {
+		ensure(1);
+		int start = buffer.position();
+		buffer.put((byte) ',');
+		for (int i = 0; i < arguments.size(); i++)
+			writeTypeTag(arguments.get(i));
+		int pad = 4 - ((buffer.position() - start) & 3);
+		ensure(pad);
+		for (int i = 0; i < pad; i++)
+			buffer.put((byte) 0);
+	}
+
+	private void writeTypeTag(Object argument) {
+		ensure(1);
+		if (argument instanceof Object[]) {
+			Object[] array = (Object[]) argument;
+			buffer.put((byte) '[');
+			for (int i = 0; i < array.length; i++)
+				writeTypeTag(array[i]);
+			ensure(1);
+			buffer.put((byte) ']');
+		} else buffer.put((byte) typeTag(argument));
+	}
+
+	/**
+	 * @return the OSC type tag for an argument
+	 * @throws IllegalArgumentException if the argument has no OSC type
+	 */
+	public static char typeTag(Object argument) {
+		if (argument == null) return 'N';
+		if (argument instanceof Integer) return 'i';
+		if (argument instanceof Float) return 'f';
+		if (argument instanceof String) return 's';
+		if (argument instanceof Boolean) return ((Boolean) argument).booleanValue() ? 'T' : 'F';
+		if (argument instanceof Long) return 'h';
+		if (argument instanceof BigInteger) return 'h';
+		if (argument instanceof Double) return 'd';
+		if (argument instanceof Character) return 'c';
+		if (argument instanceof byte[]) return 'b';
+		if (argument instanceof ByteBuffer) return 'b';
+		if (argument instanceof Date) return 't';
+		if (argument instanceof OSCImpulse) return 'I';
+		throw new IllegalArgumentException("no OSC type for " + argument.getClass().getName());
+	}
+
+	/**
+	 * Write the arguments of a message in the order of their type tags
+	 */
+	public void writeArguments(List<Object> arguments) {
+		for (int i = 0; i < arguments.size(); i++)
+			writeArgument(arguments.get(i));
+	}
+
+	private void writeArgument(Object argument) {
+		if (argument instanceof Integer) writeInt(((Integer) argument).intValue());
+		else if (argument instanceof Float) writeFloat(((Float) argument).floatValue());
+		else if (argument instanceof String) writeString((String) argument);
+		else if (argument instanceof Long) writeLong(((Long) argument).longValue());
+		else if (argument instanceof BigInteger) writeLong(((BigInteger) argument).longValue());
+		else if (argument instanceof Double) writeDouble(((Double) argument).doubleValue());
+		else if (argument instanceof Character) writeChar(((Character) argument).charValue());
+		else if (argument instanceof byte[]) writeBlob((byte[]) argument, 0, ((byte[]) argument).length);
+		else if (argument instanceof ByteBuffer) writeBlob((ByteBuffer) argument);
+		else if (argument instanceof Date) writeTimeTag(dateToTimeTag((Date) argument));
+		else if (argument instanceof Object[]) {
+			Object[] array = (Object[]) argument;
+			for (int i = 0; i < array.length; i++)
+				writeArgument(array[i]);
+		}
+		// null, Boolean and OSCImpulse have no argument data
+	}
+
+	/**
+	 * Convert a Date into a time tag, with the fraction in the same
+	 * microsecond units that OSCByteArrayToJavaConverter reads back
+	 */
+	public static long dateToTimeTag(Date date) {
+		return millisToTimeTag(date.getTime());
+	}
+
+	/**
+	 * Convert milliseconds since 1970, such as System.currentTimeMillis(), into a time tag
+	 */
+	public static long millisToTimeTag(long millisecs) {
+		long secsSince1970 = millisecs / 1000;
+		long secs = secsSince1970 + OSCBundle.SECONDS_FROM_1900_to_1970.longValue();
+		long fraction = (millisecs - (secsSince1970 * 1000)) * 1000;
+		return (secs << 32) | (fraction & 0xFFFFFFFFL);
+	}
+
+}
@@ -91,7 +91,32 @@ public class OSCJavaToByteArrayConverter {
 	 * @param str java.lang.String
 	 */
 	public void write(String str) {
-		writeLittleEndToFourByteBoundry(str.getBytes());
+		int length = str.length();
+		if (!isAscii(str)) {
+			// other characters keep the encoding of getBytes()
+			byte[] bytes = str.getBytes();
+			stream.write(bytes, 0, bytes.length);
+			length = bytes.length;
+		} else {
+			for (int i = 0; i < length; i++)
+				stream.write(str.charAt(i));
+		}
+		// strings are null terminated, so there is at least one pad byte
+		int pad = 4 - (length % 4);
+		for (int i = 0; i < pad; i++)
+			stream.write(0);
+	}
+
+	/**
+	 * @return true if the string only contains ASCII characters, which
+	 * are written as they are without encoding the string first
+	 */
+	static boolean isAscii(String str) {
+		int length = str.length();
+		for (int i = 0; i < length; i++) {
+			if (str.charAt(i) >= 0x80) return false;
+		}
+		return true;
 	}
 
 	/**
@@ -122,6 +147,23 @@ public class OSCJavaToByteArrayConverter {
 			write((Integer) anObject);
 			return;
 		}
+		// writeType announces these, so their data has to follow
+		if (anObject instanceof Double) {
+			long bits = Double.doubleToLongBits(((Double) anObject).doubleValue());
+			writeIntegerToByteArray((int) (bits >>> 32));
+			writeIntegerToByteArray((int) bits);
+			return;
+		}
+		if (anObject instanceof BigInteger) {
+			long value = ((BigInteger) anObject).longValue();
+			writeIntegerToByteArray((int) (value >>> 32));
+			writeIntegerToByteArray((int) value);
+			return;
+		}
+		if (anObject instanceof Character) {
+			writeIntegerToByteArray(((Character) anObject).charValue());
+			return;
+		}
 	}
 
 	/**
@@ -249,8 +291,6 @@ public class OSCJavaToByteArrayConverter {
 	 * @param value int
 	 */
 	private void writeIntegerToByteArray(int value) {
-		byte[] intBytes = new byte[4];
-
 		intBytes[3] = (byte)value; value>>>=8;
 		intBytes[2] = (byte)value; value>>>=8;
 		intBytes[1] = (byte)value; value>>>=8;
@@ -278,33 +318,9 @@ public class OSCJavaToByteArrayConverter {
 		}
 		// pad the bytes to lineup correctly
 		int pad = 4 - mod;
-		byte[] newBytes = new byte[pad + bytes.length];
-		System.arraycopy(bytes,0,newBytes,pad,bytes.length);
-
-		try { stream.write(newBytes); } catch (IOException e)
-		{ throw new RuntimeException("You're screwed: IOException writing to a ByteArrayOutputStream"); }
-	}
-
-	/**
-	 * Line up the LittleEnd of the bytes to a 4 byte boundry
-	 * 
-	 * @param bytes byte[]
-	 */
-	private void writeLittleEndToFourByteBoundry(byte[] bytes) {
-		int mod = bytes.length % 4;
-		// if the remainder == 0 write the bytes
-		if (mod == 4) {
-			try { stream.write(bytes); } catch (IOException e)
-			{ throw new RuntimeException("You're screwed: IOException writing to a ByteArrayOutputStream"); }
-			return;
-		}
-		// pad the bytes to lineup correctly
-		int pad = 4 - mod;
-		byte[] newBytes = new byte[pad + bytes.length];
-		System.arraycopy(bytes,0,newBytes,0,bytes.length);
-
-		try { stream.write(newBytes); } catch (IOException e)
-		{ throw new RuntimeException("You're screwed: IOException writing to a ByteArrayOutputStream"); }
+		for (int i = 0; i < pad; i++)
+			stream.write(0);
+		stream.write(bytes, 0, bytes.length);
 	}
 
 }
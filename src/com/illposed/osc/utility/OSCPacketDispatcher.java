@@ -5,9 +5,8 @@ package com.illposed.osc.utility;
 
 import com.illposed.osc.*;
 
+import java.util.Arrays;
 import java.util.Date;
-import java.util.Enumeration;
-import java.util.Hashtable;
 
 /**
  * @author cramakrishnan
@@ -19,10 +18,66 @@ import java.util.Hashtable;
  * 
  * Dispatches OSCMessages to registered listeners.
  * 
+ * Listeners are kept in an OSCAddressTable keyed by the address bytes,
+ * several listeners can be registered for the same address. Registration
+ * replaces the table copy-on-write, so dispatching needs no locking.
+ *
+ * Listeners can also be registered with an OSC address pattern such as
+ * "/tuio/*" or "/tuio/2D{obj,cur}". Patterns are compiled once, and the
+ * listeners that apply to an incoming address are resolved on its first
+ * arrival and kept in a bounded match cache.
+ *
+ * Encoded packets may be dispatched from several threads at once, each
+ * thread decodes with its own reusable state. Listeners are then called
+ * concurrently and have to synchronize themselves.
  */
 
 public class OSCPacketDispatcher {
-	private Hashtable<String,OSCListener> addressToClassTable = new Hashtable<String,OSCListener>();
+	/**
+	 * The maximum number of addresses in the pattern match cache
+	 */
+	public static final int MATCH_CACHE_SIZE = 256;
+
+	private volatile OSCAddressTable addressTable = new OSCAddressTable();
+	private volatile OSCAddressTable patternTable = new OSCAddressTable();
+	private volatile OSCAddressTable.Entry[] patternEntries = patternTable.entries();
+	private volatile OSCAddressTable matchCache = new OSCAddressTable();
+	private volatile int generation = 0;
+	private volatile OSCPacketListener[] packetListeners = new OSCPacketListener[0];
+
+	private volatile boolean recycling = false;
+	private volatile boolean debugRecycling = false;
+
+	/**
+	 * The reusable state for dispatching encoded packets on one thread
+	 */
+	private static final class DecodeState {
+		final OSCByteArrayToJavaConverter converter = new OSCByteArrayToJavaConverter();
+		final OSCMessageView view = new OSCMessageView();
+		int[] bundleEnds = new int[4];
+		long[] bundleTimeTags = new long[4];
+
+		int pushBundle(int depth, int end, long timeTag) {
+			if (depth == bundleEnds.length) {
+				int[] ends = new int[2 * depth];
+				System.arraycopy(bundleEnds, 0, ends, 0, depth);
+				bundleEnds = ends;
+				long[] timeTags = new long[2 * depth];
+				System.arraycopy(bundleTimeTags, 0, timeTags, 0, depth);
+				bundleTimeTags = timeTags;
+			}
+			bundleEnds[depth] = end;
+			bundleTimeTags[depth] = timeTag;
+			return depth + 1;
+		}
+	}
+
+	// several receive threads may share one dispatcher
+	private final ThreadLocal<DecodeState> decodeState = new ThreadLocal<DecodeState>() {
+		protected DecodeState initialValue() {
+			return new DecodeState();
+		}
+	};
 	
 	/**
 	 * 
@@ -31,8 +86,211 @@ public class OSCPacketDispatcher {
 		super();
 	}
 
-	public void addListener(String address, OSCListener listener) {
-		addressToClassTable.put(address, listener);
+	/**
+	 * In recycling mode, the OSCMessages created for OSCListeners while dispatching
+	 * encoded packets come from a per-thread pool and are released after all listeners
+	 * have been called. Listeners then must not keep a message or its argument array
+	 * beyond acceptMessage.
+	 * @param recycling       true to reuse OSCMessage objects
+	 * @param debugRecycling  true to never reuse but mark released messages, so that
+	 *                        any later access by a listener throws an IllegalStateException
+	 */
+	public void setRecycling(boolean recycling, boolean debugRecycling) {
+		this.recycling = recycling;
+		this.debugRecycling = debugRecycling;
+	}
+
+	/**
+	 * @return true if OSCMessage objects are released after dispatch
+	 */
+	public boolean isRecycling() {
+		return recycling;
+	}
+
+	/**
+	 * Register a listener for an address or address pattern, in addition
+	 * to all listeners that are already registered for the same address
+	 * @param address   the address or pattern to listen for
+	 * @param listener  the listener to invoke when a message comes in
+	 */
+	public synchronized void addListener(String address, OSCListener listener) {
+		update(address, listener, null, null);
+	}
+
+	/**
+	 * Register a listener that reads matching messages through an OSCMessageView,
+	 * these are only called for packets passed to dispatchPacket(byte[], int, int)
+	 * @param address   the address or pattern to listen for
+	 * @param listener  the listener to invoke when a message comes in
+	 */
+	public synchronized void addViewListener(String address, OSCMessageViewListener listener) {
+		update(address, null, listener, null);
+	}
+
+	/**
+	 * Remove a listener of either kind from an address
+	 * @param address   the address or pattern the listener was registered for
+	 * @param listener  the listener to remove
+	 */
+	public synchronized void removeListener(String address, Object listener) {
+		update(address, null, null, listener);
+	}
+
+	/**
+	 * Register a listener for the raw bytes of every packet passed to
+	 * dispatchPacket(byte[], int, int), which is called before decoding
+	 * @param listener  the listener to invoke when a packet comes in
+	 */
+	public synchronized void addPacketListener(OSCPacketListener listener) {
+		OSCPacketListener[] listeners = Arrays.copyOf(packetListeners, packetListeners.length + 1);
+		listeners[listeners.length - 1] = listener;
+		packetListeners = listeners;
+	}
+
+	/**
+	 * Remove a raw packet listener
+	 * @param listener  the listener to remove
+	 */
+	public synchronized void removePacketListener(OSCPacketListener listener) {
+		for (int i = 0; i < packetListeners.length; i++) {
+			if (packetListeners[i] != listener) continue;
+			OSCPacketListener[] listeners = new OSCPacketListener[packetListeners.length - 1];
+			System.arraycopy(packetListeners, 0, listeners, 0, i);
+			System.arraycopy(packetListeners, i + 1, listeners, i, listeners.length - i);
+			packetListeners = listeners;
+			return;
+		}
+	}
+
+	private void update(String address, OSCListener listener, OSCMessageViewListener viewListener, Object removed) {
+		byte[] key = address.getBytes();
+		boolean isPattern = OSCPatternMatcher.isPattern(address);
+		OSCAddressTable table = isPattern ? patternTable : addressTable;
+		OSCAddressTable.Entry entry = table.get(key);
+		if ((null == entry) && (null != removed))
+			return;
+		OSCListener[] listeners = (null == entry) ? OSCAddressTable.NO_LISTENERS : entry.listeners;
+		OSCMessageViewListener[] viewListeners = (null == entry) ? OSCAddressTable.NO_VIEW_LISTENERS : entry.viewListeners;
+		if (null != listener)
+			listeners = append(listeners, listener);
+		if (null != viewListener)
+			viewListeners = append(viewListeners, viewListener);
+		if (null != removed) {
+			listeners = without(listeners, removed);
+			viewListeners = without(viewListeners, removed);
+		}
+		OSCPatternMatcher matcher = null;
+		if (isPattern)
+			matcher = (null == entry) ? new OSCPatternMatcher(address) : entry.matcher;
+		table = table.with(new OSCAddressTable.Entry(key, OSCAddressTable.hash(key), listeners, viewListeners, matcher));
+		if (isPattern) {
+			patternTable = table;
+			patternEntries = table.entries();
+		} else
+			addressTable = table;
+		// any cached match may have changed
+		generation++;
+		matchCache = new OSCAddressTable();
+	}
+
+	private static <T> T[] append(T[] listeners, T listener) {
+		T[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+		newListeners[listeners.length] = listener;
+		return newListeners;
+	}
+
+	private static <T> T[] without(T[] listeners, Object listener) {
+		int count = 0;
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] != listener) count++;
+		}
+		if (count == listeners.length) return listeners;
+		T[] newListeners = Arrays.copyOf(listeners, count);
+		count = 0;
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] != listener) newListeners[count++] = listeners[i];
+		}
+		return newListeners;
+	}
+
+	private OSCAddressTable.Entry lookup(OSCMessageView message) {
+		int currentGeneration = generation;
+		OSCAddressTable.Entry[] patterns = patternEntries;
+		if (patterns.length == 0)
+			return addressTable.get(message);
+		OSCAddressTable.Entry entry = matchCache.get(message);
+		if (null != entry)
+			return entry;
+		byte[] address = new byte[message.getAddressLength()];
+		for (int i = 0; i < address.length; i++)
+			address[i] = message.getAddressByte(i);
+		return resolve(address, patterns, currentGeneration);
+	}
+
+	private OSCAddressTable.Entry lookup(String address) {
+		int currentGeneration = generation;
+		OSCAddressTable.Entry[] patterns = patternEntries;
+		if (patterns.length == 0)
+			return addressTable.get(address);
+		OSCAddressTable.Entry entry = matchCache.get(address);
+		if (null != entry)
+			return entry;
+		return resolve(address.getBytes(), patterns, currentGeneration);
+	}
+
+	/**
+	 * Collect the exact and pattern listeners for an address and add them to the match cache
+	 */
+	private OSCAddressTable.Entry resolve(byte[] address, OSCAddressTable.Entry[] patterns, int resolveGeneration) {
+		OSCAddressTable.Entry exact = addressTable.get(address);
+		OSCListener[] listeners = (null == exact) ? OSCAddressTable.NO_LISTENERS : exact.listeners;
+		OSCMessageViewListener[] viewListeners = (null == exact) ? OSCAddressTable.NO_VIEW_LISTENERS : exact.viewListeners;
+		for (int i = 0; i < patterns.length; i++) {
+			if (!patterns[i].matcher.matches(address))
+				continue;
+			listeners = concat(listeners, patterns[i].listeners);
+			viewListeners = concat(viewListeners, patterns[i].viewListeners);
+		}
+		OSCAddressTable.Entry entry = new OSCAddressTable.Entry(address, OSCAddressTable.hash(address), listeners, viewListeners, null);
+		synchronized (this) {
+			// do not cache a result that was computed from outdated registrations
+			if (resolveGeneration == generation) {
+				OSCAddressTable cache = matchCache;
+				if (cache.size() >= MATCH_CACHE_SIZE)
+					cache = new OSCAddressTable();
+				matchCache = cache.withCached(entry);
+			}
+		}
+		return entry;
+	}
+
+	private static <T> T[] concat(T[] first, T[] second) {
+		if (second.length == 0) return first;
+		if (first.length == 0) return second;
+		T[] result = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, result, first.length, second.length);
+		return result;
+	}
+
+	/**
+	 * Dispatch an encoded packet directly from the receive buffer.
+	 * Messages are read in place, OSCMessage objects are only created
+	 * if an OSCListener is registered for the message address.
+	 * @param bytes   the receive buffer
+	 * @param offset  the start of the packet
+	 * @param length  the length of the packet
+	 */
+	public void dispatchPacket(byte[] bytes, int offset, int length) {
+		OSCPacketListener[] listeners = packetListeners;
+		for (int i = 0; i < listeners.length; i++)
+			listeners[i].acceptPacket(bytes, offset, length);
+		DecodeState state = decodeState.get();
+		state.converter.setRecycling(recycling);
+		state.converter.setDebugRecycling(debugRecycling);
+		if (OSCMessageView.isBundle(bytes, offset, length))
+			dispatchBundle(state, bytes, offset, length);
+		else
+			dispatchMessage(state, bytes, offset, length, OSCMessageView.TIMETAG_IMMEDIATE, false);
 	}
 	
 	public void dispatchPacket(OSCPacket packet) {
@@ -57,21 +315,80 @@ public class OSCPacketDispatcher {
 		}
 	}
 	
+	/**
+	 * Walks a bundle and all nested bundles in one pass over the buffer,
+	 * using an explicit stack of bundle end positions and time tags.
+	 */
+	private void dispatchBundle(DecodeState state, byte[] bytes, int offset, int length) {
+		int depth = state.pushBundle(0, offset + length, readLong(bytes, offset + 8));
+		int position = offset + 16;
+		while (depth > 0) {
+			int end = state.bundleEnds[depth - 1];
+			if (position + 4 > end) {
+				position = end;
+				depth--;
+				continue;
+			}
+			int packetLength = readInt(bytes, position);
+			position += 4;
+			if ((packetLength < 0) || (position + packetLength > end))
+				throw new IllegalArgumentException("malformed OSC bundle");
+			if (OSCMessageView.isBundle(bytes, position, packetLength)) {
+				depth = state.pushBundle(depth, position + packetLength, readLong(bytes, position + 8));
+				position += 16;
+			} else {
+				dispatchMessage(state, bytes, position, packetLength, state.bundleTimeTags[depth - 1], true);
+				position += packetLength;
+			}
+		}
+	}
+
+	private void dispatchMessage(DecodeState state, byte[] bytes, int offset, int length, long timeTag, boolean inBundle) {
+		OSCMessageView view = state.view.wrap(bytes, offset, length);
+		OSCAddressTable.Entry entry = lookup(view);
+		if (null == entry)
+			return;
+		OSCMessageViewListener[] viewListeners = entry.viewListeners;
+		for (int i = 0; i < viewListeners.length; i++)
+			viewListeners[i].acceptMessage(timeTag, view);
+		OSCListener[] listeners = entry.listeners;
+		if (listeners.length == 0)
+			return;
+		// only convert the message when somebody wants the object
+		OSCMessage message = (OSCMessage) state.converter.convert(bytes, offset, length);
+		Date time = (inBundle && (timeTag != OSCBundle.TIMETAG_IMMEDIATE)) ? OSCByteArrayToJavaConverter.timeTagToDate(timeTag) : null;
+		try {
+			for (int i = 0; i < listeners.length; i++)
+				listeners[i].acceptMessage(time, message);
+		} finally {
+			// a failing listener must not keep the message from the pool
+			state.converter.release(message);
+		}
+	}
+
+	private static int readInt(byte[] bytes, int position) {
+		return ((bytes[position] & 0xFF) << 24) |
+			((bytes[position + 1] & 0xFF) << 16) |
+			((bytes[position + 2] & 0xFF) << 8) |
+			(bytes[position + 3] & 0xFF);
+	}
+
+	private static long readLong(byte[] bytes, int position) {
+		return ((long) readInt(bytes, position) << 32) | (readInt(bytes, position + 4) & 0xFFFFFFFFL);
+	}
+
 	private void dispatchMessage(OSCMessage message) {
 		dispatchMessage(message, null);
 	}
 	
 	private void dispatchMessage(OSCMessage message, Date time) {
-		Enumeration keys = addressToClassTable.keys();
-		while (keys.hasMoreElements()) {
-			String key = (String) keys.nextElement();
-			// this supports the OSC regexp facility, but it
-			// only works in JDK 1.4, so don't support it right now
-			// if (key.matches(message.getAddress())) {
-			if (key.equals(message.getAddress())) {
-				OSCListener listener = (OSCListener) addressToClassTable.get(key);
-				listener.acceptMessage(time, message);
-			}
-		}
+		if (null == message.getAddress())
+			return;
+		OSCAddressTable.Entry entry = lookup(message.getAddress());
+		if (null == entry)
+			return;
+		OSCListener[] listeners = entry.listeners;
+		for (int i = 0; i < listeners.length; i++)
+			listeners[i].acceptMessage(time, message);
 	}
 }
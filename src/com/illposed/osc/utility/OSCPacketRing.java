@@ -0,0 +1,396 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ * OSCPacketRing is a pre-allocated single producer / single consumer
+ * ring buffer that decouples the socket thread of an OSCPortIn from
+ * the thread that decodes the packets and calls the listeners.
+ *
+ * The receive thread copies every raw packet together with its receive
+ * time into the next free slot and goes straight back to the socket.
+ * A processing thread takes the packets out of the ring in order and
+ * hands them to an OSCPacketDispatcher, so slow listeners no longer
+ * make the kernel drop datagrams.
+ *
+ * When the processing thread is idle it waits according to one of the
+ * WAIT_* strategies, when the ring is full the OVERFLOW_* policy decides
+ * whether the receive thread waits, or which packet is dropped.
+ *
+ * The slots are allocated with the configured slot size and a slot grows
+ * when a larger packet arrives, up to MAX_PACKET_SIZE, the largest UDP
+ * datagram. Only packets beyond that are dropped and counted as oversized.
+ */
+
+package com.illposed.osc.utility;
+
+import com.illposed.osc.OSCPacketListener;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class OSCPacketRing implements Runnable {
+
+	/**
+	 * The idle processing thread spins, lowest latency at the cost of a full core
+	 */
+	public static final int WAIT_BUSY_SPIN = 0;
+	/**
+	 * The idle processing thread yields to other threads
+	 */
+	public static final int WAIT_YIELD = 1;
+	/**
+	 * The idle processing thread sleeps for a short while
+	 */
+	public static final int WAIT_SLEEP = 2;
+	/**
+	 * The idle processing thread blocks until the receive thread signals a packet
+	 */
+	public static final int WAIT_BLOCKING = 3;
+
+	/**
+	 * The receive thread waits until a slot becomes free
+	 */
+	public static final int OVERFLOW_BLOCK = 0;
+	/**
+	 * The oldest queued packet is dropped in favour of the new one
+	 */
+	public static final int OVERFLOW_DROP_OLDEST = 1;
+	/**
+	 * The new packet is dropped
+	 */
+	public static final int OVERFLOW_DROP_NEWEST = 2;
+
+	public static final int DEFAULT_CAPACITY = 256;
+	public static final int DEFAULT_SLOT_SIZE = 8192;
+	public static final int MAX_PACKET_SIZE = 65536;
+
+	private static final long SLEEP_NANOS = 50000;
+
+	private final byte[][] slots;
+	private final int[] lengths;
+	private final long[] receiveTimes;
+	private final int mask;
+	private final int slotSize;
+	private final int maxPacketSize;
+	private final int waitStrategy;
+	private final int overflowPolicy;
+
+	// the next sequence to read and to write
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private volatile boolean consumerWaiting = false;
+
+	private volatile boolean running = false;
+	private OSCPacketDispatcher dispatcher;
+	private OSCPacketListener listener;
+	private byte[] copyBuffer;
+	private long currentReceiveTime;
+
+	// counters, each written by only one thread
+	private volatile long offeredCount = 0;
+	private volatile long processedCount = 0;
+	private volatile long droppedOldestCount = 0;
+	private volatile long droppedNewestCount = 0;
+	private volatile long oversizedCount = 0;
+	private volatile long blockedCount = 0;
+
+	/**
+	 * Create a ring with the default capacity and slot size,
+	 * that blocks when idle and drops the oldest packet when full
+	 */
+	public OSCPacketRing() {
+		this(DEFAULT_CAPACITY, DEFAULT_SLOT_SIZE, WAIT_BLOCKING, OVERFLOW_DROP_OLDEST);
+	}
+
+	/**
+	 * @param capacity        the number of slots, rounded up to a power of two
+	 * @param slotSize        the initial slot size, a slot grows for larger packets up to MAX_PACKET_SIZE
+	 * @param waitStrategy    one of the WAIT_* constants
+	 * @param overflowPolicy  one of the OVERFLOW_* constants
+	 */
+	public OSCPacketRing(int capacity, int slotSize, int waitStrategy, int overflowPolicy) {
+		int size = 1;
+		while (size < capacity) size <<= 1;
+		slots = new byte[size][slotSize];
+		lengths = new int[size];
+		receiveTimes = new long[size];
+		mask = size - 1;
+		this.slotSize = slotSize;
+		maxPacketSize = Math.max(slotSize, MAX_PACKET_SIZE);
+		this.waitStrategy = waitStrategy;
+		this.overflowPolicy = overflowPolicy;
+		if (overflowPolicy == OVERFLOW_DROP_OLDEST)
+			copyBuffer = new byte[slotSize];
+	}
+
+	/**
+	 * Queue a packet, only to be called from the single receive thread
+	 * @param bytes        the receive buffer
+	 * @param offset       the start of the packet
+	 * @param length       the length of the packet
+	 * @param receiveTime  the System.nanoTime() the packet was received at
+	 * @return false if the packet was dropped
+	 */
+	public boolean offer(byte[] bytes, int offset, int length, long receiveTime) {
+		offeredCount++;
+		if (length > maxPacketSize) {
+			oversizedCount++;
+			return false;
+		}
+		long sequence = tail.get();
+		if (sequence - head.get() > mask) {
+			switch (overflowPolicy) {
+				case OVERFLOW_DROP_NEWEST :
+					droppedNewestCount++;
+					return false;
+				case OVERFLOW_DROP_OLDEST :
+					// the consumer may have taken it meanwhile, then there is room anyway
+					long oldest = sequence - mask - 1;
+					if (head.compareAndSet(oldest, oldest + 1)) droppedOldestCount++;
+					break;
+				default :
+					blockedCount++;
+					while ((sequence - head.get() > mask) && running)
+						LockSupport.parkNanos(1000);
+					if (sequence - head.get() > mask) return false;
+			}
+		}
+		int slot = (int) sequence & mask;
+		if (slots[slot].length < length) slots[slot] = new byte[grownSize(length)];
+		System.arraycopy(bytes, offset, slots[slot], 0, length);
+		lengths[slot] = length;
+		receiveTimes[slot] = receiveTime;
+		// publishes the slot content to the consumer
+		tail.lazySet(sequence + 1);
+		if ((waitStrategy == WAIT_BLOCKING) && consumerWaiting)
+			signal();
+		return true;
+	}
+
+	private int grownSize(int length) {
+		int size = Math.max(slotSize, 64);
+		while (size < length) size *= 2;
+		return Math.min(size, maxPacketSize);
+	}
+
+	private void signal() {
+		lock.lock();
+		try {
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Start a processing thread that passes the queued packets to the dispatcher
+	 * @param dispatcher  the dispatcher that decodes the packets
+	 */
+	public void start(OSCPacketDispatcher dispatcher) {
+		start(dispatcher, new OSCThreadFactory("OSCPacketRing"));
+	}
+
+	/**
+	 * Run the processing loop on the executor, which passes the queued packets to the dispatcher
+	 * @param dispatcher  the dispatcher that decodes the packets
+	 * @param executor    the executor that runs the processing loop until stop
+	 */
+	public void start(OSCPacketDispatcher dispatcher, Executor executor) {
+		this.dispatcher = dispatcher;
+		running = true;
+		executor.execute(this);
+	}
+
+	/**
+	 * Run the processing loop on the executor, which passes the queued packets undecoded to the listener,
+	 * for example to forward them to another transport
+	 * @param listener  the listener that receives the raw packets
+	 * @param executor  the executor that runs the processing loop until stop
+	 */
+	public void start(OSCPacketListener listener, Executor executor) {
+		this.listener = listener;
+		running = true;
+		executor.execute(this);
+	}
+
+	/**
+	 * Stop the processing thread, packets still queued are discarded
+	 */
+	public void stop() {
+		running = false;
+		if (waitStrategy == WAIT_BLOCKING) signal();
+	}
+
+	/**
+	 * @return true while the processing thread is running
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * The processing loop
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		while (running) {
+			if (!poll()) waitForPacket();
+		}
+	}
+
+	/**
+	 * Dispatch the next queued packet, only to be called from the single processing thread
+	 * @return false if the ring was empty
+	 */
+	public boolean poll() {
+		while (true) {
+			long sequence = head.get();
+			if (sequence == tail.get()) return false;
+			int slot = (int) sequence & mask;
+			int length = lengths[slot];
+			currentReceiveTime = receiveTimes[slot];
+			if (overflowPolicy == OVERFLOW_DROP_OLDEST) {
+				// the receive thread may overwrite a slot it dropped, so only
+				// a copy that was still owned after copying it is dispatched
+				byte[] bytes = slots[slot];
+				if (copyBuffer.length < length) copyBuffer = new byte[grownSize(length)];
+				System.arraycopy(bytes, 0, copyBuffer, 0, Math.min(length, bytes.length));
+				if (!head.compareAndSet(sequence, sequence + 1)) continue;
+				dispatch(copyBuffer, length);
+			} else {
+				dispatch(slots[slot], length);
+				head.lazySet(sequence + 1);
+			}
+			return true;
+		}
+	}
+
+	private void dispatch(byte[] bytes, int length) {
+		processedCount++;
+		try {
+			if (listener != null) listener.acceptPacket(bytes, 0, length);
+			else dispatcher.dispatchPacket(bytes, 0, length);
+		} catch (RuntimeException e) {
+			// a malformed packet or a failing listener must not end processing
+			e.printStackTrace();
+		}
+	}
+
+	private void waitForPacket() {
+		switch (waitStrategy) {
+			case WAIT_BUSY_SPIN :
+				break;
+			case WAIT_YIELD :
+				Thread.yield();
+				break;
+			case WAIT_SLEEP :
+				LockSupport.parkNanos(SLEEP_NANOS);
+				break;
+			default :
+				lock.lock();
+				try {
+					consumerWaiting = true;
+					while ((head.get() == tail.get()) && running)
+						notEmpty.await(1, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					running = false;
+				} finally {
+					consumerWaiting = false;
+					lock.unlock();
+				}
+		}
+	}
+
+	/**
+	 * @return the System.nanoTime() the packet that is currently dispatched was received at
+	 */
+	public long getCurrentReceiveTime() {
+		return currentReceiveTime;
+	}
+
+	/**
+	 * @return the number of packets currently queued
+	 */
+	public int size() {
+		return (int) (tail.get() - head.get());
+	}
+
+	/**
+	 * @return the number of slots
+	 */
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * @return the initial slot size
+	 */
+	public int getSlotSize() {
+		return slotSize;
+	}
+
+	/**
+	 * @return one of the WAIT_* constants
+	 */
+	public int getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * @return one of the OVERFLOW_* constants
+	 */
+	public int getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * @return the number of packets passed to offer()
+	 */
+	public long getOfferedCount() {
+		return offeredCount;
+	}
+
+	/**
+	 * @return the number of packets passed to the dispatcher
+	 */
+	public long getProcessedCount() {
+		return processedCount;
+	}
+
+	/**
+	 * @return the number of queued packets dropped for newer ones
+	 */
+	public long getDroppedOldestCount() {
+		return droppedOldestCount;
+	}
+
+	/**
+	 * @return the number of new packets dropped because the ring was full
+	 */
+	public long getDroppedNewestCount() {
+		return droppedNewestCount;
+	}
+
+	/**
+	 * @return the number of packets dropped because they were larger than MAX_PACKET_SIZE
+	 */
+	public long getOversizedCount() {
+		return oversizedCount;
+	}
+
+	/**
+	 * @return the number of times the receive thread had to wait for a free slot
+	 */
+	public long getBlockedCount() {
+		return blockedCount;
+	}
+
+}
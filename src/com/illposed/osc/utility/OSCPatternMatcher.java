@@ -0,0 +1,200 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ * OSCPatternMatcher is a compiled OSC address pattern. It supports
+ * the OSC 1.0 pattern syntax:
+ *
+ *     ?        any single character except '/'
+ *     *        any sequence of zero or more characters except '/'
+ *     [abc]    any of the listed characters, including ranges like [a-z]
+ *     [!abc]   any character except the listed ones and '/'
+ *     {a,b}    any of the comma separated strings
+ *
+ * The pattern is parsed once into a token list, matching an address
+ * then works directly on its ASCII bytes.
+ */
+
+package com.illposed.osc.utility;
+
+public class OSCPatternMatcher {
+
+	private static final int LITERAL = 0;
+	private static final int ANY_CHAR = 1;
+	private static final int ANY_SEQUENCE = 2;
+	private static final int CHAR_CLASS = 3;
+	private static final int ALTERNATIVES = 4;
+
+	private final String pattern;
+	private int[] types;
+	private byte[] literals;
+	private boolean[][] classes;
+	private byte[][][] alternatives;
+	private int tokenCount;
+
+	/**
+	 * Compile an OSC address pattern
+	 * @param pattern the address pattern
+	 * @throws IllegalArgumentException if a [] or {} group is not closed
+	 */
+	public OSCPatternMatcher(String pattern) {
+		this.pattern = pattern;
+		int length = pattern.length();
+		types = new int[length];
+		literals = new byte[length];
+		classes = new boolean[length][];
+		alternatives = new byte[length][][];
+		int i = 0;
+		while (i < length) {
+			char c = pattern.charAt(i);
+			switch (c) {
+				case '?' :
+					types[tokenCount++] = ANY_CHAR;
+					i++;
+					break;
+				case '*' :
+					// consecutive wildcards match the same as a single one
+					if ((tokenCount == 0) || (types[tokenCount - 1] != ANY_SEQUENCE))
+						types[tokenCount++] = ANY_SEQUENCE;
+					i++;
+					break;
+				case '[' :
+					i = compileClass(i + 1);
+					break;
+				case '{' :
+					i = compileAlternatives(i + 1);
+					break;
+				default :
+					types[tokenCount] = LITERAL;
+					literals[tokenCount++] = (byte) c;
+					i++;
+			}
+		}
+	}
+
+	private int compileClass(int start) {
+		int close = pattern.indexOf(']', start);
+		if (close < 0)
+			throw new IllegalArgumentException("unclosed [ in OSC address pattern " + pattern);
+		boolean negate = (close > start) && (pattern.charAt(start) == '!');
+		int i = negate ? start + 1 : start;
+		boolean[] members = new boolean[128];
+		while (i < close) {
+			char from = pattern.charAt(i);
+			char to = from;
+			if ((i + 2 < close) && (pattern.charAt(i + 1) == '-')) {
+				to = pattern.charAt(i + 2);
+				i += 3;
+			} else i++;
+			if (from > to) {
+				char swap = from;
+				from = to;
+				to = swap;
+			}
+			for (char c = from; (c <= to) && (c < 128); c++)
+				members[c] = true;
+		}
+		if (negate) {
+			for (int c = 0; c < 128; c++)
+				members[c] = !members[c];
+		}
+		members['/'] = false;
+		types[tokenCount] = CHAR_CLASS;
+		classes[tokenCount++] = members;
+		return close + 1;
+	}
+
+	private int compileAlternatives(int start) {
+		int close = pattern.indexOf('}', start);
+		if (close < 0)
+			throw new IllegalArgumentException("unclosed { in OSC address pattern " + pattern);
+		String[] parts = pattern.substring(start, close).split(",", -1);
+		byte[][] choices = new byte[parts.length][];
+		for (int i = 0; i < parts.length; i++)
+			choices[i] = parts[i].getBytes();
+		types[tokenCount] = ALTERNATIVES;
+		alternatives[tokenCount++] = choices;
+		return close + 1;
+	}
+
+	/**
+	 * @return true if the address contains any OSC pattern characters
+	 */
+	public static boolean isPattern(String address) {
+		for (int i = 0; i < address.length(); i++) {
+			switch (address.charAt(i)) {
+				case '?' :
+				case '*' :
+				case '[' :
+				case '{' :
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the source of this pattern
+	 */
+	public String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * @return true if the ASCII address matches this pattern
+	 */
+	public boolean matches(byte[] address) {
+		return match(0, address, 0, address.length);
+	}
+
+	/**
+	 * @return true if the address matches this pattern
+	 */
+	public boolean matches(String address) {
+		return matches(address.getBytes());
+	}
+
+	private boolean match(int token, byte[] address, int position, int end) {
+		while (token < tokenCount) {
+			switch (types[token]) {
+				case LITERAL :
+					if ((position >= end) || (address[position] != literals[token])) return false;
+					break;
+				case ANY_CHAR :
+					if ((position >= end) || (address[position] == '/')) return false;
+					break;
+				case CHAR_CLASS :
+					if (position >= end) return false;
+					int c = address[position] & 0xFF;
+					if ((c >= 128) || !classes[token][c]) return false;
+					break;
+				case ANY_SEQUENCE :
+					for (int p = position; ; p++) {
+						if (match(token + 1, address, p, end)) return true;
+						if ((p >= end) || (address[p] == '/')) return false;
+					}
+				case ALTERNATIVES :
+					byte[][] choices = alternatives[token];
+					for (int i = 0; i < choices.length; i++) {
+						if (regionMatches(address, position, end, choices[i])
+							&& match(token + 1, address, position + choices[i].length, end))
+							return true;
+					}
+					return false;
+			}
+			token++;
+			position++;
+		}
+		return position == end;
+	}
+
+	private static boolean regionMatches(byte[] address, int position, int end, byte[] choice) {
+		if (position + choice.length > end) return false;
+		for (int i = 0; i < choice.length; i++) {
+			if (address[position + i] != choice[i]) return false;
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,258 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ * OSCSharedMemoryRing is a ring buffer of OSC packets in a memory mapped
+ * file, written by one process and read by any number of processes on
+ * the same host without any system call per packet.
+ *
+ * All numbers are stored in native byte order. The file starts with a
+ * header of HEADER_SIZE bytes:
+ *
+ *     0   int   magic "OSCR"
+ *     4   int   version
+ *     8   int   slot count
+ *     12  int   slot size, the largest packet
+ *     64  long  write sequence, the number of packets written so far
+ *
+ * followed by the slots, each with a SLOT_HEADER_SIZE header:
+ *
+ *     0   long  sequence of the packet + 1, 0 while it is being written
+ *     8   int   packet length
+ *     16        packet bytes
+ *
+ * Packet n is written to slot n % slot count. A reader that falls more
+ * than a ring behind the writer loses the overwritten packets, which it
+ * detects by the slot sequence, both before and after copying a packet.
+ */
+
+package com.illposed.osc.utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class OSCSharedMemoryRing {
+
+	public static final int MAGIC = 0x4F534352;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 128;
+	public static final int SLOT_HEADER_SIZE = 16;
+
+	private static final int SLOT_COUNT_OFFSET = 8;
+	private static final int SLOT_SIZE_OFFSET = 12;
+	private static final int WRITE_SEQUENCE_OFFSET = 64;
+
+	private static final MethodHandle RELEASE_FENCE = fence("releaseFence");
+	private static final MethodHandle ACQUIRE_FENCE = fence("acquireFence");
+	private static volatile int fallbackFence;
+
+	private final File file;
+	private final FileChannel channel;
+	private final MappedByteBuffer map;
+	private final ByteBuffer data;
+	private final int slotCount;
+	private final int slotSize;
+	private final int slotStride;
+	private long writeSequence;
+
+	private OSCSharedMemoryRing(File file, FileChannel channel, MappedByteBuffer map, int slotCount, int slotSize) {
+		this.file = file;
+		this.channel = channel;
+		this.map = map;
+		this.map.order(ByteOrder.nativeOrder());
+		this.data = map.duplicate();
+		this.slotCount = slotCount;
+		this.slotSize = slotSize;
+		this.slotStride = SLOT_HEADER_SIZE + ((slotSize + 7) & ~7);
+	}
+
+	/**
+	 * Create the ring file for writing, an existing ring with the same
+	 * geometry is continued, so running readers keep their position
+	 * @param file       the file to map, preferably on a RAM file system such as /dev/shm
+	 * @param slotCount  the number of packets the ring holds
+	 * @param slotSize   the largest packet size
+	 */
+	public static OSCSharedMemoryRing create(File file, int slotCount, int slotSize) throws IOException {
+		long size = HEADER_SIZE + (long) slotCount * (SLOT_HEADER_SIZE + ((slotSize + 7) & ~7));
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			boolean reuse = (raf.length() == size);
+			raf.setLength(size);
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			OSCSharedMemoryRing ring = new OSCSharedMemoryRing(file, channel, map, slotCount, slotSize);
+			reuse = reuse && (map.getInt(0) == MAGIC) && (map.getInt(4) == VERSION)
+				&& (map.getInt(SLOT_COUNT_OFFSET) == slotCount) && (map.getInt(SLOT_SIZE_OFFSET) == slotSize);
+			if (reuse) {
+				ring.writeSequence = map.getLong(WRITE_SEQUENCE_OFFSET);
+			} else {
+				for (int i = 0; i < slotCount; i++)
+					map.putLong(ring.slotOffset(i), 0);
+				map.putLong(WRITE_SEQUENCE_OFFSET, 0);
+				map.putInt(4, VERSION);
+				map.putInt(SLOT_COUNT_OFFSET, slotCount);
+				map.putInt(SLOT_SIZE_OFFSET, slotSize);
+				releaseFence();
+				map.putInt(0, MAGIC);
+			}
+			return ring;
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Open an existing ring file for reading
+	 * @param file  the file created by the writer
+	 * @throws IOException if the file is not an OSC ring
+	 */
+	public static OSCSharedMemoryRing open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (raf.length() < HEADER_SIZE) throw new IOException(file + " is not an OSC shared memory ring");
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			map.order(ByteOrder.nativeOrder());
+			if ((map.getInt(0) != MAGIC) || (map.getInt(4) != VERSION))
+				throw new IOException(file + " is not an OSC shared memory ring");
+			int slotCount = map.getInt(SLOT_COUNT_OFFSET);
+			int slotSize = map.getInt(SLOT_SIZE_OFFSET);
+			if (HEADER_SIZE + (long) slotCount * (SLOT_HEADER_SIZE + ((slotSize + 7) & ~7)) > raf.length())
+				throw new IOException(file + " is truncated");
+			return new OSCSharedMemoryRing(file, channel, map, slotCount, slotSize);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	private int slotOffset(int slot) {
+		return HEADER_SIZE + slot * slotStride;
+	}
+
+	/**
+	 * Append a packet, only to be called by the single writer
+	 * @return false if the packet is larger than a slot
+	 */
+	public boolean write(byte[] bytes, int offset, int length) {
+		if (length > slotSize) return false;
+		long sequence = writeSequence;
+		int slotOffset = slotOffset((int) (sequence % slotCount));
+		// mark the slot as busy before overwriting it
+		map.putLong(slotOffset, 0);
+		releaseFence();
+		map.putInt(slotOffset + 8, length);
+		data.position(slotOffset + SLOT_HEADER_SIZE);
+		data.put(bytes, offset, length);
+		releaseFence();
+		map.putLong(slotOffset, sequence + 1);
+		releaseFence();
+		writeSequence = sequence + 1;
+		map.putLong(WRITE_SEQUENCE_OFFSET, writeSequence);
+		return true;
+	}
+
+	/**
+	 * @return the number of packets written so far
+	 */
+	public long getWriteSequence() {
+		long sequence = map.getLong(WRITE_SEQUENCE_OFFSET);
+		acquireFence();
+		return sequence;
+	}
+
+	/**
+	 * Copy a packet out of the ring
+	 * @param sequence  the packet number, below getWriteSequence()
+	 * @param dest      a buffer of at least getSlotSize() bytes
+	 * @return the packet length, or -1 if the packet has been overwritten
+	 */
+	public int read(long sequence, byte[] dest) {
+		int slotOffset = slotOffset((int) (sequence % slotCount));
+		long before = map.getLong(slotOffset);
+		acquireFence();
+		if (before != sequence + 1) return -1;
+		int length = map.getInt(slotOffset + 8);
+		if ((length < 0) || (length > slotSize)) return -1;
+		data.position(slotOffset + SLOT_HEADER_SIZE);
+		data.get(dest, 0, length);
+		acquireFence();
+		// the writer may have overwritten the slot while it was copied
+		if (map.getLong(slotOffset) != before) return -1;
+		return length;
+	}
+
+	/**
+	 * @return the number of packets the ring holds
+	 */
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * @return the largest packet size
+	 */
+	public int getSlotSize() {
+		return slotSize;
+	}
+
+	/**
+	 * @return the ring file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Close the file, the mapping itself is released by the garbage collector
+	 */
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {}
+	}
+
+	/**
+	 * VarHandle fences are only available from Java 9 on, so they are looked up at runtime
+	 */
+	private static MethodHandle fence(String name) {
+		try {
+			Class<?> varHandle = Class.forName("java.lang.invoke.VarHandle");
+			return MethodHandles.publicLookup().findStatic(varHandle, name, MethodType.methodType(void.class));
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	static void releaseFence() {
+		if (RELEASE_FENCE != null) {
+			try {
+				RELEASE_FENCE.invokeExact();
+				return;
+			} catch (Throwable t) {}
+		}
+		fallbackFence = 0;
+	}
+
+	static void acquireFence() {
+		if (ACQUIRE_FENCE != null) {
+			try {
+				ACQUIRE_FENCE.invokeExact();
+				return;
+			} catch (Throwable t) {}
+		}
+		if (fallbackFence != 0) fallbackFence = 0;
+	}
+
+}
@@ -0,0 +1,186 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ * OSCStreamFramer splits a TCP byte stream into OSC packets. It supports
+ * the two framings used by OSC stream transports:
+ *
+ *     SLIP           OSC 1.1, every packet is SLIP encoded and enclosed
+ *                    in END bytes (RFC 1055 with a leading END)
+ *     LENGTH_PREFIX  OSC 1.0, every packet is preceded by its length
+ *                    as a 32 bit big-endian integer
+ *
+ * Decoding is incremental, a packet may arrive in any number of pieces.
+ * One framer is used per connection, and collects the packet bytes in a
+ * buffer that is reused for all packets of that connection.
+ */
+
+package com.illposed.osc.utility;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class OSCStreamFramer {
+
+	public static final int SLIP = 0;
+	public static final int LENGTH_PREFIX = 1;
+
+	static final byte END = (byte) 0xC0;
+	static final byte ESC = (byte) 0xDB;
+	static final byte ESC_END = (byte) 0xDC;
+	static final byte ESC_ESC = (byte) 0xDD;
+
+	private final int framing;
+	private final int maxPacketSize;
+	private byte[] packet = new byte[4096];
+	private int length = 0;
+
+	// SLIP state
+	private boolean escaped = false;
+	// length prefix state, the expected length is unknown while negative
+	private int headerBytes = 0;
+	private int expected = -1;
+
+	/**
+	 * @param framing        SLIP or LENGTH_PREFIX
+	 * @param maxPacketSize  the largest packet accepted from the stream
+	 */
+	public OSCStreamFramer(int framing, int maxPacketSize) {
+		this.framing = framing;
+		this.maxPacketSize = maxPacketSize;
+	}
+
+	/**
+	 * @return the framing of this framer
+	 */
+	public int getFraming() {
+		return framing;
+	}
+
+	/**
+	 * Consume bytes from the stream until the next packet is complete
+	 * @param in  the received bytes, in read mode
+	 * @return the length of the completed packet in getBuffer(),
+	 *         or -1 if all bytes were consumed without completing a packet
+	 * @throws IOException if the packet exceeds the maximum packet size
+	 */
+	public int next(ByteBuffer in) throws IOException {
+		if (framing == SLIP) return nextSlip(in);
+		else return nextLengthPrefixed(in);
+	}
+
+	/**
+	 * @return the buffer that holds the packet returned by the last next() call,
+	 *         which is only valid until next() is called again
+	 */
+	public byte[] getBuffer() {
+		return packet;
+	}
+
+	private int nextSlip(ByteBuffer in) throws IOException {
+		while (in.hasRemaining()) {
+			byte b = in.get();
+			if (b == END) {
+				escaped = false;
+				// empty frames between two END bytes are skipped
+				if (length > 0) {
+					int complete = length;
+					length = 0;
+					return complete;
+				}
+				continue;
+			}
+			if (escaped) {
+				escaped = false;
+				if (b == ESC_END) b = END;
+				else if (b == ESC_ESC) b = ESC;
+			} else if (b == ESC) {
+				escaped = true;
+				continue;
+			}
+			append(b);
+		}
+		return -1;
+	}
+
+	private int nextLengthPrefixed(ByteBuffer in) throws IOException {
+		while (in.hasRemaining()) {
+			if (expected < 0) {
+				length = (length << 8) | (in.get() & 0xFF);
+				if (++headerBytes < 4) continue;
+				expected = length;
+				length = 0;
+				headerBytes = 0;
+				if ((expected < 0) || (expected > maxPacketSize))
+					throw new IOException("OSC packet of " + expected + " bytes exceeds the maximum of " + maxPacketSize);
+				ensureCapacity(expected);
+			}
+			int count = Math.min(expected - length, in.remaining());
+			in.get(packet, length, count);
+			length += count;
+			if (length == expected) {
+				int complete = length;
+				length = 0;
+				expected = -1;
+				return complete;
+			}
+		}
+		return -1;
+	}
+
+	private void append(byte b) throws IOException {
+		if (length == packet.length) {
+			if (length >= maxPacketSize)
+				throw new IOException("OSC packet exceeds the maximum of " + maxPacketSize + " bytes");
+			ensureCapacity(length + 1);
+		}
+		packet[length++] = b;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= packet.length) return;
+		int size = packet.length;
+		while (size < capacity) size <<= 1;
+		byte[] grown = new byte[Math.min(size, Math.max(capacity, maxPacketSize))];
+		System.arraycopy(packet, 0, grown, 0, length);
+		packet = grown;
+	}
+
+	/**
+	 * @return the largest number of bytes a packet of the given length takes in a stream
+	 */
+	public static int getMaxFrameLength(int framing, int length) {
+		if (framing == SLIP) return 2 * length + 2;
+		else return length + 4;
+	}
+
+	/**
+	 * Write a framed packet to a buffer
+	 * @param framing  SLIP or LENGTH_PREFIX
+	 * @param bytes    the packet bytes
+	 * @param offset   the start of the packet
+	 * @param length   the length of the packet
+	 * @param out      the buffer with at least getMaxFrameLength() bytes remaining
+	 */
+	public static void encode(int framing, byte[] bytes, int offset, int length, ByteBuffer out) {
+		if (framing == SLIP) {
+			out.put(END);
+			for (int i = offset; i < offset + length; i++) {
+				byte b = bytes[i];
+				if (b == END) {
+					out.put(ESC);
+					out.put(ESC_END);
+				} else if (b == ESC) {
+					out.put(ESC);
+					out.put(ESC_ESC);
+				} else out.put(b);
+			}
+			out.put(END);
+		} else {
+			out.putInt(length);
+			out.put(bytes, offset, length);
+		}
+	}
+
+}
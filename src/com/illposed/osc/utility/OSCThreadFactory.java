@@ -0,0 +1,91 @@
+/**
+ * @author Martin Kaltenbrunner
+ *
+ * See license.txt (or license.rtf) for license information.
+ *
+ * OSCThreadFactory creates the named receive and processing threads of
+ * the OSC ports. The first thread gets the plain name, further threads
+ * get a running number appended. As it is also an Executor it can be
+ * passed to OSCPortIn.setExecutor() directly.
+ *
+ * On Java 21 and later virtualThreads() returns a factory for virtual
+ * threads, which lets an application run many ports without a platform
+ * thread and its stack per port.
+ */
+
+package com.illposed.osc.utility;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+public class OSCThreadFactory implements ThreadFactory, Executor {
+
+	private final String name;
+	private final boolean daemon;
+	private final int priority;
+	private int count = 0;
+
+	/**
+	 * Create a factory for non-daemon threads with normal priority
+	 * @param name  the thread name
+	 */
+	public OSCThreadFactory(String name) {
+		this(name, false, Thread.NORM_PRIORITY);
+	}
+
+	/**
+	 * @param name      the thread name
+	 * @param daemon    true if the threads should not keep the JVM alive
+	 * @param priority  the thread priority
+	 */
+	public OSCThreadFactory(String name, boolean daemon, int priority) {
+		this.name = name;
+		this.daemon = daemon;
+		this.priority = priority;
+	}
+
+	/**
+	 * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+	 */
+	public synchronized Thread newThread(Runnable task) {
+		count++;
+		Thread thread = new Thread(task, (count == 1) ? name : name + "-" + count);
+		thread.setDaemon(daemon);
+		thread.setPriority(priority);
+		return thread;
+	}
+
+	/**
+	 * Run the task on a new thread
+	 * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+	 */
+	public void execute(Runnable task) {
+		newThread(task).start();
+	}
+
+	/**
+	 * Virtual threads are only available from Java 21 on, so they are looked up at runtime
+	 * @param name  the thread name prefix, the threads are numbered from 0
+	 * @return a factory for virtual threads or null
+	 */
+	public static ThreadFactory virtualThreads(String name) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Method nameMethod = builderClass.getMethod("name", String.class, long.class);
+			builder = nameMethod.invoke(builder, name + "-", Long.valueOf(0));
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if virtualThreads() is supported by this Java runtime
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return virtualThreads("OSC") != null;
+	}
+
+}